@@ -38,5 +38,17 @@ public enum Action {
     /**
      * represents the action of count an entity in the database
      */
-    COUNT
+    COUNT,
+    /**
+     * represents the action of stream all the entities in the database to an address of the event bus
+     */
+    EXPORT,
+    /**
+     * represents the action of create a chunk of entities in the database
+     */
+    IMPORT,
+    /**
+     * represents the action of group and summarize the entities in the database
+     */
+    AGGREGATE
 }
@@ -0,0 +1,147 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package database.commons;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Compiles the specifications of the action "aggregate" into pipelines of aggregation of mongo, the specification
+ * has the properties "group", "sum", "avg", "min", "max" and "facet" with the names of the fields coma separated, ex:
+ * {"group": "city", "sum": "amount,tax", "max": "amount"}. The names of the results are the fields with the dots
+ * replaced by "-", ex: "sum_address-zip". The stages after the condition depend only on the fields and are kept in a
+ * cache of the last used keyed by them, so the requests that differ only in the values of the condition share the
+ * entry. Must be used only from the context of the verticle and the stages of the pipelines must not be modified
+ *
+ * @author Ulises Beltrán Gómez - beltrangomezulises@gmail.com
+ */
+class AggregatePipelines {
+
+    private static final String[] ACCUMULATORS = {"sum", "avg", "min", "max"};
+    private static final int MAX_FIELDS = 10;
+
+    private final Map<String, JsonArray> cache;
+    private final Predicate<String> isValidField;
+
+    /**
+     * @param maxSize max number of pipelines in the cache
+     * @param isValidField the condition of the fields that can be aggregated
+     */
+    public AggregatePipelines(int maxSize, Predicate<String> isValidField) {
+        this.isValidField = isValidField;
+        this.cache = new LinkedHashMap<String, JsonArray>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, JsonArray> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Gets the pipeline of a specification, compiled before or now
+     *
+     * @param spec the specification of the aggregation
+     * @param match creates the condition of the documents to aggregate from the specification
+     * @param maxResults max number of results of the pipeline
+     * @return the pipeline of aggregation
+     * @throws IllegalArgumentException if the specification is not valid
+     */
+    public JsonArray get(JsonObject spec, Function<JsonObject, JsonObject> match, int maxResults) {
+        JsonObject shape = spec.copy();
+        shape.remove("query");
+        String key = shape.encode() + "|" + maxResults;
+        JsonArray stages = cache.get(key);
+        if (stages == null) {
+            stages = this.compile(shape, maxResults);
+            cache.put(key, stages);
+        }
+        JsonObject condition = match.apply(spec);
+        if (condition.isEmpty()) {
+            return stages;
+        }
+        return new JsonArray().add(new JsonObject().put("$match", condition)).addAll(stages);
+    }
+
+    private JsonArray compile(JsonObject spec, int maxResults) {
+        JsonObject group = new JsonObject();
+        String[] groupFields = this.fields(spec, "group");
+        if (groupFields.length == 0) {
+            group.putNull("_id");
+        } else {
+            JsonObject id = new JsonObject();
+            Set<String> ids = new HashSet<>();
+            for (String field : groupFields) {
+                id.put(alias(field, ids), "$" + field);
+            }
+            group.put("_id", id);
+        }
+        group.put("count", new JsonObject().put("$sum", 1));
+        for (String accumulator : ACCUMULATORS) {
+            Set<String> accumulated = new HashSet<>();
+            for (String field : this.fields(spec, accumulator)) {
+                group.put(accumulator + "_" + alias(field, accumulated), new JsonObject().put("$" + accumulator, "$" + field));
+            }
+        }
+        JsonArray groupStages = new JsonArray()
+                .add(new JsonObject().put("$group", group))
+                .add(new JsonObject().put("$sort", new JsonObject().put("count", -1)))
+                .add(new JsonObject().put("$limit", maxResults));
+
+        String[] facetFields = this.fields(spec, "facet");
+        if (facetFields.length == 0) {
+            return groupStages;
+        }
+        JsonObject facet = new JsonObject().put("groups", groupStages);
+        Set<String> facets = new HashSet<>();
+        facets.add("groups");
+        for (String field : facetFields) {
+            facet.put(alias(field, facets), new JsonArray()
+                    .add(new JsonObject().put("$sortByCount", "$" + field))
+                    .add(new JsonObject().put("$limit", maxResults)));
+        }
+        return new JsonArray().add(new JsonObject().put("$facet", facet));
+    }
+
+    /**
+     * Name of a field in the results, the dots are not allowed in the names of the results
+     *
+     * @param field the name of the field
+     * @param used the names already used in the same object of the results
+     * @return the name of the field in the results
+     * @throws IllegalArgumentException if the name is already used
+     */
+    private static String alias(String field, Set<String> used) {
+        String alias = field.replace('.', '-');
+        if (!used.add(alias)) {
+            throw new IllegalArgumentException("The field " + field + " is repeated or its name is already used in the results");
+        }
+        return alias;
+    }
+
+    private String[] fields(JsonObject spec, String property) {
+        String value = spec.getString(property);
+        if (value == null || value.isEmpty()) {
+            return new String[0];
+        }
+        String[] fields = value.split(",");
+        if (fields.length > MAX_FIELDS) {
+            throw new IllegalArgumentException("Too many fields in " + property + ", max " + MAX_FIELDS);
+        }
+        for (String field : fields) {
+            if (!isValidField.test(field)) {
+                throw new IllegalArgumentException("The field " + field + " can not be aggregated");
+            }
+        }
+        return fields;
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package database.commons;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Set of values that answers if a value might be in it or is definitely not, with a probability of false positives
+ * and without false negatives. The values can not be removed, must be used only from the context of the verticle
+ *
+ * @author Ulises Beltrán Gómez - beltrangomezulises@gmail.com
+ */
+class BloomFilter {
+
+    private final long[] bits;
+    private final int size;
+    private final int hashes;
+
+    /**
+     * @param expectedValues number of values expected to be added
+     * @param falsePositiveRate probability of false positives with the expected values, ex: 0.01
+     */
+    public BloomFilter(long expectedValues, double falsePositiveRate) {
+        long n = Math.max(1, expectedValues);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.size = (int) Math.max(64, Math.min(m, Integer.MAX_VALUE - 63));
+        this.bits = new long[(size + 63) / 64];
+        this.hashes = Math.max(1, (int) Math.round((double) size / n * Math.log(2)));
+    }
+
+    /**
+     * Adds a value
+     *
+     * @param value the value to add
+     */
+    public void put(Object value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashes; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % size;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Indicates if a value might had been added
+     *
+     * @param value the value to look for
+     * @return false if the value was never added, true if it might had been
+     */
+    public boolean mightContain(Object value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashes; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % size;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 64 bits FNV-1a hash of the text of the value with a final mix of the bits
+     */
+    private static long hash(Object value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : String.valueOf(value).getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+}
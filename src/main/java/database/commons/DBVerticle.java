@@ -5,15 +5,89 @@
  */
 package database.commons;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoServerException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.MongoWriteConcernException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.BulkWriteOptions;
 import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.mongo.IndexOptions;
 import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.mongo.UpdateOptions;
+import io.vertx.ext.mongo.WriteOption;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import utils.UtilsJson;
+import utils.UtilsLog;
+import utils.UtilsMetrics;
+import utils.UtilsValidation;
 import static service.commons.Constants.ACTION;
+import static service.commons.Constants.CONTINUATION;
+import static service.commons.Constants.CONFIG_AGGREGATE_CACHE_SIZE;
+import static service.commons.Constants.CONFIG_COUNTERS;
+import static service.commons.Constants.CONFIG_COUNTERS_RECONCILE_INTERVAL;
+import static service.commons.Constants.CONFIG_DEFAULT_PAGE_SIZE;
+import static service.commons.Constants.CONFIG_EXPORT_ACK_TIMEOUT;
+import static service.commons.Constants.CONFIG_EXPORT_CHUNK_SIZE;
+import static service.commons.Constants.CONFIG_FIND_BY_ID_MAX_BATCH;
+import static service.commons.Constants.CONFIG_INDEXES;
+import static service.commons.Constants.CONFIG_JOURNAL_DIRECTORY;
+import static service.commons.Constants.CONFIG_JOURNAL_MAX_SEGMENTS;
+import static service.commons.Constants.CONFIG_JOURNAL_REPLAY_BATCH_SIZE;
+import static service.commons.Constants.CONFIG_JOURNAL_REPLAY_INTERVAL;
+import static service.commons.Constants.CONFIG_JOURNAL_SEGMENT_BYTES;
+import static service.commons.Constants.CONFIG_MAX_PAGE_SIZE;
+import static service.commons.Constants.CONFIG_MAX_RESPONSE_BYTES;
+import static service.commons.Constants.CONFIG_OFF_HEAP_CACHE;
+import static service.commons.Constants.CONFIG_OFF_HEAP_CACHE_MAX_ENTRY_BYTES;
+import static service.commons.Constants.CONFIG_PAGE_LIMITS;
+import static service.commons.Constants.CONFIG_POOLS;
+import static service.commons.Constants.CONFIG_READ_PREFERENCE;
+import static service.commons.Constants.CONFIG_UNINDEXED_SORT_MAX_RESULTS;
+import static service.commons.Constants.CONFIG_UNIQUE_FILTER_EXPECTED_VALUES;
+import static service.commons.Constants.CONFIG_WRITE_CONCERNS;
+import static service.commons.Constants.JOURNALED;
+import static service.commons.Constants.SENT_AT;
+import static service.commons.Constants.RAW_JSON;
+import static service.commons.Constants.RETURN_NEW;
+import static service.commons.Constants.SELECT;
+import static service.commons.Constants.STREAM_END;
+import static service.commons.Constants.STREAM_ERROR;
+import static service.commons.Constants.STREAM_STATUS;
+import static service.commons.Constants.TRUNCATED;
 
 /**
  *
@@ -21,11 +95,103 @@ import static service.commons.Constants.ACTION;
  */
 public abstract class DBVerticle extends AbstractVerticle {
 
+    /**
+     * atomic operators allowed in the updates besides "$set"
+     */
+    private static final Set<String> ATOMIC_OPERATORS = new HashSet<>(Arrays.asList("$inc", "$push", "$addToSet"));
+
+    /**
+     * atomic operators that add values to an array
+     */
+    private static final List<String> ARRAY_OPERATORS = Arrays.asList("$push", "$addToSet");
+
+    /**
+     * fields set only by the services, can not be changed with the atomic operators
+     */
+    private static final Set<String> AUDIT_FIELDS = new HashSet<>(Arrays.asList("_id", "created_at", "created_by", "updated_at", "updated_by"));
+
+    /**
+     * codes of the errors of mongo when there is no primary to write, like in a failover, the write was not applied
+     */
+    private static final Set<Integer> UNAVAILABLE_CODES = new HashSet<>(Arrays.asList(
+            6, 7, 89, 91, 189, 9001, 10107, 11600, 11602, 13435, 13436));
+
+    /**
+     * valid names of fields and subfields
+     */
+    private static final Pattern FIELD_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)*");
+
     /**
      * the client contains the channel of comunication with the database
      */
     protected MongoClient dbClient;
 
+    /**
+     * the client to execute the reads in the database, uses the read preference of this verticle and is the same
+     * client of the writes if there is no one
+     */
+    protected MongoClient dbReadClient;
+
+    /**
+     * messages of "findById" waiting to be resolved in the same query
+     */
+    private final List<Message<JsonObject>> findByIdBatch = new ArrayList<>();
+
+    /**
+     * max number of ids to resolve in the same query
+     */
+    private int findByIdMaxBatch;
+
+    /**
+     * write concerns of the actions already resolved from the configuration
+     */
+    private final Map<Action, WriteOption> writeOptions = new EnumMap<>(Action.class);
+
+    /**
+     * counters of the documents of the entity kept in memory to answer the action "count"
+     */
+    private EntityCounters counters;
+
+    /**
+     * true while there is a reconciliation of the counters waiting to run
+     */
+    private boolean reconcileScheduled;
+
+    /**
+     * pipelines of the action "aggregate" already compiled
+     */
+    private AggregatePipelines aggregatePipelines;
+
+    /**
+     * keys of the indexes of the collection, used to know if a sort can be resolved without sorting in memory
+     */
+    private final List<JsonObject> indexKeys = new ArrayList<>();
+
+    /**
+     * filters of the values of the unique fields, to skip the search of repeated values that were never written
+     */
+    private final Map<String, BloomFilter> uniqueFilters = new LinkedHashMap<>();
+
+    /**
+     * true when the filters of the unique fields have all the values of the collection
+     */
+    private boolean uniqueFiltersReady;
+
+    /**
+     * cache out of the heap of the documents found by id, null if it is not enabled
+     */
+    private OffHeapCache cache;
+
+    /**
+     * journal of the writes made while mongo is unreachable, null if it is not enabled
+     */
+    private WriteAheadJournal journal;
+
+    /**
+     * true while a batch of the journal is being replayed
+     */
+    private boolean replaying;
+
     /**
      * method that runs when the verticles is deployed
      *
@@ -34,17 +200,43 @@ public abstract class DBVerticle extends AbstractVerticle {
      */
     @Override
     public void start(Future<Void> startFuture) throws Exception {
-        dbClient = MongoClient.createShared(vertx, config());
+        JsonObject poolConfig = this.getPoolConfig();
+        String readPreference = poolConfig.getString(CONFIG_READ_PREFERENCE);
+        poolConfig.remove(CONFIG_READ_PREFERENCE); //writes always go to the primary
+        dbClient = MongoClient.createShared(vertx, poolConfig, this.getPoolName());
+        if (readPreference == null) {
+            dbReadClient = dbClient;
+        } else {
+            dbReadClient = MongoClient.createShared(vertx,
+                    poolConfig.copy().put(CONFIG_READ_PREFERENCE, readPreference),
+                    this.getPoolName() + "_" + readPreference);
+        }
+        findByIdMaxBatch = config().getInteger(CONFIG_FIND_BY_ID_MAX_BATCH, 100);
+        counters = new EntityCounters(this.getCountedFields());
+        aggregatePipelines = new AggregatePipelines(config().getInteger(CONFIG_AGGREGATE_CACHE_SIZE, 256), this::isAggregableField);
+        try {
+            this.createCache();
+            this.openJournal();
+        } catch (IOException | IllegalArgumentException e) {
+            startFuture.fail(e);
+            return;
+        }
+        this.createIndexes();
+        this.loadUniqueFilters();
+        this.reconcileCounters();
+        vertx.setPeriodic(config().getLong(CONFIG_COUNTERS_RECONCILE_INTERVAL, 60000L), id -> this.reconcileCounters());
         this.vertx.eventBus().consumer(this.getClass().getSimpleName(), this::onMessage);
         startFuture.complete();
     }
 
     /**
-     * This method takes the action of the message and execute the method that corresponds
+     * This method takes the action of the message and execute the method that corresponds, the messages sent with
+     * the header "sent_at" reply the times of reception and reply in the headers
      *
-     * @param message the message from the event bus
+     * @param received the message from the event bus
      */
-    protected void onMessage(Message<JsonObject> message) {
+    protected void onMessage(Message<JsonObject> received) {
+        Message<JsonObject> message = received.headers().contains(SENT_AT) ? new TimedMessage<>(received) : received;
         if (isValidAction(message)) {
             try {
                 Action action = Action.valueOf(message.headers().get(ACTION));
@@ -70,6 +262,15 @@ public abstract class DBVerticle extends AbstractVerticle {
                     case COUNT:
                         this.count(message);
                         break;
+                    case EXPORT:
+                        this.export(message);
+                        break;
+                    case IMPORT:
+                        this.importData(message);
+                        break;
+                    case AGGREGATE:
+                        this.aggregate(message);
+                        break;
                 }
             } catch (IllegalArgumentException e) {
             }
@@ -91,15 +292,189 @@ public abstract class DBVerticle extends AbstractVerticle {
     }
 
     /**
-     * Execute the query "select * from"
+     * Execute the query "select * from", the page is limited to the default page size when there is no "to" and to
+     * the max page size and max response bytes of the entity, when the result is cut the reply has the headers
+     * "truncated" and "continuation" with the token to send as property "continue" to get the rest, with the header
+     * "raw_json" the page is replied already encoded as json in a buffer
      *
      * @param message message from the event bus
      */
     protected void findAll(Message<JsonObject> message) {
         JsonObject body = message.body();
+        JsonObject queryObject = this.getQueryObject(body);
+        FindOptions findOptions;
+        try {
+            findOptions = this.getFindOptions(body);
+        } catch (IllegalArgumentException e) {
+            message.reply(new JsonObject(), new DeliveryOptions().addHeader(ErrorCodes.DB_ERROR.name(), e.getMessage()));
+            return;
+        }
+        String continuation = body.getString("continue");
+        if (continuation != null) {
+            try {
+                int skip = Integer.parseInt(new String(Base64.getUrlDecoder().decode(continuation), StandardCharsets.UTF_8));
+                if (skip < 0) {
+                    throw new IllegalArgumentException("negative skip");
+                }
+                findOptions.setSkip(skip);
+            } catch (IllegalArgumentException e) {
+                message.fail(ErrorCodes.INVALID_VALUE.ordinal(), "Invalid continuation token");
+                return;
+            }
+        }
+        int maxPageSize = this.getPageLimit(CONFIG_MAX_PAGE_SIZE, 1000);
+        int requested = findOptions.getLimit() > 0 ? findOptions.getLimit() : Integer.MAX_VALUE;
+        int pageSize = Math.min(requested == Integer.MAX_VALUE ? this.getPageLimit(CONFIG_DEFAULT_PAGE_SIZE, 100) : requested, maxPageSize);
+        int maxBytes = this.getPageLimit(CONFIG_MAX_RESPONSE_BYTES, 4 * 1024 * 1024);
+        findOptions.setLimit(pageSize + 1); //one more to know if there are more documents
+        if (!this.isSortAllowed(findOptions.getSort(), findOptions.getSkip() + findOptions.getLimit())) {
+            message.reply(new JsonObject(), new DeliveryOptions().addHeader(ErrorCodes.DB_ERROR.name(),
+                    "The sort " + findOptions.getSort().encode() + " needs an index or fewer results"));
+            return;
+        }
+        this.dbReadClient.findWithOptions(this.getEntityName(), queryObject, findOptions, reply -> {
+            if (reply.succeeded()) {
+                List<JsonObject> documents = reply.result();
+                boolean raw = message.headers().contains(RAW_JSON);
+                JsonArray page = new JsonArray();
+                Buffer rawPage = raw ? Buffer.buffer().appendByte((byte) '[') : null;
+                int count = 0;
+                long bytes = 0;
+                for (JsonObject document : documents) {
+                    if (count == pageSize) {
+                        break;
+                    }
+                    Buffer encoded = raw ? UtilsJson.encode(document) : null;
+                    bytes += raw ? encoded.length() : UtilsJson.encodedLength(document); //bytes, without keeping the json
+                    if (bytes > maxBytes && count > 0) {
+                        break;
+                    }
+                    if (raw) {
+                        if (count > 0) {
+                            rawPage.appendByte((byte) ',');
+                        }
+                        rawPage.appendBuffer(encoded);
+                    } else {
+                        page.add(document);
+                    }
+                    count++;
+                }
+                Object result = raw ? rawPage.appendByte((byte) ']') : page;
+                boolean truncated = count < documents.size() && count < requested;
+                if (truncated) {
+                    String next = String.valueOf(findOptions.getSkip() + count);
+                    message.reply(result, new DeliveryOptions()
+                            .addHeader(TRUNCATED, "true")
+                            .addHeader(CONTINUATION, Base64.getUrlEncoder().withoutPadding().encodeToString(next.getBytes(StandardCharsets.UTF_8))));
+                } else {
+                    message.reply(result);
+                }
+            } else {
+                message.fail(ErrorCodes.DB_ERROR.ordinal(), reply.cause().getMessage());
+            }
+        });
+    }
+
+    /**
+     * Limit of the pages of "findAll" in this entity, by default is taken from the object "pageLimits.{entityName}"
+     * of the configuration or from the same property in the root of the configuration, ex: {"defaultPageSize": 100,
+     * "maxPageSize": 1000, "maxResponseBytes": 4194304}
+     *
+     * @param name the name of the limit
+     * @param defaultValue the value when the limit is not configured
+     * @return the value of the limit
+     */
+    protected int getPageLimit(String name, int defaultValue) {
+        JsonObject pageLimits = config().getJsonObject(CONFIG_PAGE_LIMITS);
+        if (pageLimits != null && pageLimits.getJsonObject(this.getEntityName()) != null) {
+            Integer value = pageLimits.getJsonObject(this.getEntityName()).getInteger(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        return config().getInteger(name, defaultValue);
+    }
+
+    /**
+     * Execute the query "select * from" and streams the result as newline delimited json to the address in the
+     * property "address" of the body, the cursor only advances when the receiver confirms the previous chunk
+     *
+     * @param message message from the event bus
+     */
+    protected void export(Message<JsonObject> message) {
+        JsonObject body = message.body();
+        String address = body.getString("address");
+        if (address == null) {
+            message.fail(ErrorCodes.MISSING_VALUE.ordinal(), "No address specified to export");
+            return;
+        }
+        int chunkSize = config().getInteger(CONFIG_EXPORT_CHUNK_SIZE, 500);
+        FindOptions findOptions;
+        try {
+            findOptions = this.getFindOptions(body).setBatchSize(chunkSize);
+        } catch (IllegalArgumentException e) {
+            message.fail(ErrorCodes.INVALID_VALUE.ordinal(), e.getMessage());
+            return;
+        }
+        if (!this.isSortAllowed(findOptions.getSort(), Long.MAX_VALUE)) {
+            message.fail(ErrorCodes.INVALID_VALUE.ordinal(), "The sort " + findOptions.getSort().encode() + " needs an index to export");
+            return;
+        }
+        ReadStream<JsonObject> cursor = this.dbReadClient.findBatchWithOptions(this.getEntityName(), this.getQueryObject(body), findOptions);
+        new ExportStream(address, cursor, chunkSize).start();
+        message.reply(null);
+    }
+
+    /**
+     * Creates the query object with the properties "query" and "ids" of the body
+     *
+     * @param body body of the message with the filters
+     * @return the query object to find in the database
+     */
+    protected JsonObject getQueryObject(JsonObject body) {
         JsonObject queryObject = new JsonObject();
+
+        //set query
+        String query = body.getString("query");
+        if (query != null) {
+            addQueriestoObject(queryObject, query);
+        }
+
+        //set multi-get by ids
+        String ids = body.getString("ids");
+        if (ids != null) {
+            Set<String> idValues = new LinkedHashSet<>(Arrays.asList(ids.split(",")));
+            queryObject.put("_id", new JsonObject().put("$in", new JsonArray(new ArrayList<>(idValues))));
+        }
+        return queryObject;
+    }
+
+    /**
+     * Creates the find options with the properties "select", "from", "to" and "sort" of the body, the sort has the
+     * fields coma separated and with "-" before the fields in descending order, ex: "-created_at,name"
+     *
+     * @param body body of the message with the options
+     * @return the options to find in the database
+     * @throws IllegalArgumentException if the sort has an invalid field
+     */
+    protected FindOptions getFindOptions(JsonObject body) {
         FindOptions findOptions = new FindOptions();
 
+        //set sort
+        String sort = body.getString("sort");
+        if (sort != null && !sort.isEmpty()) {
+            JsonObject sortObject = new JsonObject();
+            for (String field : sort.split(",")) {
+                boolean descending = field.startsWith("-");
+                String name = descending ? field.substring(1) : field;
+                if (!FIELD_NAME.matcher(name).matches()) {
+                    throw new IllegalArgumentException("Invalid field to sort: " + name);
+                }
+                sortObject.put(name, descending ? -1 : 1);
+            }
+            findOptions.setSort(sortObject);
+        }
+
         //set projection
         String select = body.getString("select");
         if (select != null) {
@@ -123,53 +498,204 @@ public abstract class DBVerticle extends AbstractVerticle {
                 }
             }
         }
+        return findOptions;
+    }
 
-        //set query
-        String query = body.getString("query");
-        if (query != null) {
-            addQueriestoObject(queryObject, query);
+    /**
+     * Execute the query "select * from table where id = ?", the messages received in the same pass of the event loop
+     * are resolved together in one query "select * from table where id in (?)", with the header "raw_json" the
+     * document is replied already encoded as json in a buffer
+     *
+     * @param message message from the event bus
+     */
+    protected void findById(Message<JsonObject> message) {
+        JsonObject body = message.body();
+        if (body == null || body.size() != 1 || !body.containsKey("_id")) {
+            this.findOne(message);
+            return;
         }
+        if (cache != null) {
+            byte[] cached = cache.get(body.getValue("_id"));
+            if (cached != null) {
+                UtilsMetrics.increment(this.getEntityName() + ".cache.hit");
+                Buffer document = Buffer.buffer(cached);
+                message.reply(message.headers().contains(RAW_JSON) ? document : new JsonObject(document));
+                return;
+            }
+            UtilsMetrics.increment(this.getEntityName() + ".cache.miss");
+        }
+        findByIdBatch.add(message);
+        if (findByIdBatch.size() >= findByIdMaxBatch) {
+            this.flushFindByIdBatch();
+        } else if (findByIdBatch.size() == 1) {
+            vertx.runOnContext(v -> this.flushFindByIdBatch());
+        }
+    }
 
-        this.dbClient.findWithOptions(this.getEntityName(), queryObject, findOptions, reply -> {
+    /**
+     * Resolves all the pending messages of "findById" with a single query
+     */
+    private void flushFindByIdBatch() {
+        if (findByIdBatch.isEmpty()) {
+            return;
+        }
+        List<Message<JsonObject>> batch = new ArrayList<>(findByIdBatch);
+        findByIdBatch.clear();
+        if (batch.size() == 1) {
+            this.findOne(batch.get(0));
+            return;
+        }
+        Set<Object> ids = new LinkedHashSet<>();
+        for (Message<JsonObject> message : batch) {
+            ids.add(message.body().getValue("_id"));
+        }
+        JsonObject query = new JsonObject()
+                .put("_id", new JsonObject().put("$in", new JsonArray(new ArrayList<>(ids))));
+        long cacheVersion = cache == null ? 0 : cache.getVersion();
+        this.findByIdClient().find(this.getEntityName(), query, reply -> {
             if (reply.succeeded()) {
-                message.reply(new JsonArray(reply.result()));
+                Map<Object, JsonObject> found = new HashMap<>();
+                for (JsonObject document : reply.result()) {
+                    found.put(document.getValue("_id"), document);
+                }
+                for (Message<JsonObject> message : batch) {
+                    message.reply(this.toReply(message, found.get(message.body().getValue("_id")), cacheVersion));
+                }
             } else {
-                message.fail(ErrorCodes.DB_ERROR.ordinal(), reply.cause().getMessage());
+                for (Message<JsonObject> message : batch) {
+                    message.fail(ErrorCodes.DB_ERROR.ordinal(), reply.cause().getMessage());
+                }
             }
         });
     }
 
     /**
-     * Execute the query "select * from table where id = ?"
+     * Execute the query "select * from table where ?" with the body of the message as condition
      *
      * @param message message from the event bus
      */
-    protected void findById(Message<JsonObject> message) {
-        this.dbClient.findOne(this.getEntityName(), message.body(), new JsonObject(), reply -> {
+    private void findOne(Message<JsonObject> message) {
+        long cacheVersion = cache == null ? 0 : cache.getVersion();
+        this.findByIdClient().findOne(this.getEntityName(), message.body(), new JsonObject(), reply -> {
             if (reply.succeeded()) {
-                message.reply(reply.result());
+                message.reply(this.toReply(message, reply.result(), cacheVersion));
             } else {
                 message.fail(ErrorCodes.DB_ERROR.ordinal(), reply.cause().getMessage());
             }
         });
     }
 
+    /**
+     * Client of the reads that fill the cache, the primary when the cache is enabled so a stale document of a
+     * secondary is never cached
+     *
+     * @return the client to read the documents by id
+     */
+    private MongoClient findByIdClient() {
+        return cache != null ? dbClient : dbReadClient;
+    }
+
+    /**
+     * Prepares a document found to reply, with the header "raw_json" in the message the document is encoded as json
+     * in a buffer so the service writes the bytes in the response without copying and encoding the object again. The
+     * document is cached when the cache is enabled
+     *
+     * @param message message from the event bus
+     * @param document the document found, can be null
+     * @param cacheVersion the version of the cache taken before the document was read
+     * @return the document or the buffer with the document encoded
+     */
+    private Object toReply(Message<JsonObject> message, JsonObject document, long cacheVersion) {
+        if (document == null) {
+            return null;
+        }
+        Buffer encoded = null;
+        if (cache != null) {
+            encoded = UtilsJson.encode(document);
+            cache.put(document.getValue("_id"), encoded.getBytes(), cacheVersion);
+        }
+        if (message.headers().contains(RAW_JSON)) {
+            return encoded != null ? encoded : UtilsJson.encode(document);
+        }
+        return document;
+    }
+
+    /**
+     * Creates the cache of the documents found by id when the property "offHeapCache" of the configuration has the
+     * max number of bytes for the name of the entity, ex: {"offHeapCache": {"catalog": 1073741824}}. The documents
+     * written by this verticle are invalidated, the writes made out of this verticle are not seen by the cache, so is
+     * meant for reference data written only through this application. While the cache is enabled the documents are
+     * read by id from the primary, the hits are answered from memory
+     *
+     * @throws IllegalArgumentException if the capacity is less than a page for every size class
+     */
+    private void createCache() {
+        Long capacity = config().getJsonObject(CONFIG_OFF_HEAP_CACHE, new JsonObject()).getLong(this.getEntityName());
+        if (capacity == null || capacity <= 0) {
+            return;
+        }
+        cache = new OffHeapCache(capacity, config().getInteger(CONFIG_OFF_HEAP_CACHE_MAX_ENTRY_BYTES, 64 * 1024));
+        UtilsMetrics.gauge(this.getEntityName() + ".cache.allocatedBytes", cache::getAllocated);
+    }
+
+    /**
+     * Removes from the cache the document of the condition of a write, is called when the write is sent and when it
+     * ends so the documents read meanwhile are not cached
+     *
+     * @param query the condition of the write
+     */
+    private void invalidateCached(JsonObject query) {
+        if (cache != null && query != null) {
+            cache.invalidate(query.getValue("_id"));
+        }
+    }
+
     /**
      * Execute the query "delete from table where id = ?"
      *
      * @param message message from the event bus
      */
     protected void deleteById(Message<JsonObject> message) {
-        this.dbClient.removeDocument(this.getEntityName(), message.body(), reply -> {
+        this.invalidateCached(message.body());
+        JsonObject journalDelete = new JsonObject().put("delete", message.body());
+        if (this.mustJournal(null)) {
+            this.journal(message, journalDelete, null, null);
+            return;
+        }
+        WriteOption writeOption = this.getWriteOption(Action.DELETE_BY_ID);
+        if (writeOption == null) {
+            //with the write concern of the client the deleted document is returned to discount it exactly
+            JsonObject fields = new JsonObject().put("active", 1);
+            for (String field : counters.getFields()) {
+                fields.put(field, 1);
+            }
+            this.dbClient.findOneAndDeleteWithOptions(this.getEntityName(), message.body(), new FindOptions().setFields(fields), reply -> {
+                this.invalidateCached(message.body());
+                if (reply.succeeded()) {
+                    if (reply.result() == null) {
+                        message.reply(new JsonObject(), new DeliveryOptions().addHeader(ErrorCodes.DB_ERROR.name(), "Element not found"));
+                    } else {
+                        counters.deleted(reply.result());
+                        message.reply(null);
+                    }
+                } else {
+                    this.journal(message, journalDelete, null, reply.cause());
+                }
+            });
+            return;
+        }
+        this.dbClient.removeDocumentWithOptions(this.getEntityName(), message.body(), writeOption, reply -> {
+            this.invalidateCached(message.body());
             if (reply.succeeded()) {
-                long removedCount = reply.result().getRemovedCount();
-                if (removedCount == 0) {
+                //the result is null when the write concern is unacknowledged
+                if (reply.result() != null && reply.result().getRemovedCount() == 0) {
                     message.reply(new JsonObject(), new DeliveryOptions().addHeader(ErrorCodes.DB_ERROR.name(), "Element not found"));
                 } else {
+                    this.scheduleReconcile();
                     message.reply(null);
                 }
             } else {
-                message.fail(ErrorCodes.DB_ERROR.ordinal(), reply.cause().getMessage());
+                this.journal(message, journalDelete, null, reply.cause());
             }
         });
     }
@@ -182,17 +708,11 @@ public abstract class DBVerticle extends AbstractVerticle {
     protected void hideById(Message<JsonObject> message) {
         JsonObject updateObject = new JsonObject()
                 .put("$set", new JsonObject().put("active", false));
-        this.dbClient.updateCollection(this.getEntityName(),
-                message.body(), updateObject, reply -> {
-            if (reply.succeeded()) {
-                long removedCount = reply.result().getDocModified();
-                if (removedCount == 0) {
-                    message.reply(new JsonObject(), new DeliveryOptions().addHeader(ErrorCodes.DB_ERROR.name(), "Element not found"));
-                } else {
-                    message.reply(null);
-                }
+        this.updateOne(message, Action.HIDE_BY_ID, message.body(), updateObject, exact -> {
+            if (exact) {
+                counters.hidden();
             } else {
-                message.fail(ErrorCodes.DB_ERROR.ordinal(), reply.cause().getMessage());
+                this.scheduleReconcile();
             }
         });
     }
@@ -203,92 +723,962 @@ public abstract class DBVerticle extends AbstractVerticle {
      * @param message message from the event bus
      */
     protected void create(Message<JsonObject> message) {
-        dbClient.insert(this.getEntityName(), message.body(), reply -> {
-            if (reply.succeeded()) {
-                String id = reply.result();
-                message.reply(new JsonObject().put("id", id));
+        JsonObject insert = new JsonObject().put("insert", message.body());
+        JsonObject created = new JsonObject().put("id", message.body().getString("_id"));
+        if (this.mustJournal(null)) {
+            this.journal(message, insert, created, null);
+            return;
+        }
+        this.findDuplicate(message.body(), null, duplicate -> {
+            if (duplicate.failed()) {
+                this.journal(message, insert, created, duplicate.cause());
+            } else if (duplicate.result() != null) {
+                this.replyDuplicate(message, duplicate.result());
             } else {
-                message.fail(ErrorCodes.DB_ERROR.ordinal(), reply.cause().getMessage());
+                dbClient.insertWithOptions(this.getEntityName(), message.body(), this.getWriteOption(Action.CREATE), reply -> {
+                    if (reply.succeeded()) {
+                        String id = reply.result() != null ? reply.result() : message.body().getString("_id");
+                        this.created(message.body());
+                        message.reply(new JsonObject().put("id", id));
+                    } else if (isDuplicateKey(reply.cause())) {
+                        this.replyDuplicate(message, null);
+                    } else {
+                        this.journal(message, insert, created, reply.cause());
+                    }
+                });
             }
         });
     }
 
     /**
-     * Execute the query "update" generated by the properties of the object in the message
+     * Opens the journal of writes of the entity when the configuration has the property "journalDirectory", the
+     * segments are kept in a directory with the name of the entity and the writes pending of a previous run are
+     * replayed as soon as mongo is reachable
      *
-     * @param message message from the event bus
+     * @throws IOException if the files of the journal can not be opened
      */
-    protected void update(Message<JsonObject> message) {
-        JsonObject query = new JsonObject()
-                .put("_id", message.body().getString("_id"));
-        JsonObject body = message.body();
-        body.remove("_id");
-        JsonObject update = new JsonObject()
-                .put("$set", body);
-        this.dbClient.updateCollection(this.getEntityName(), query, update,
-                reply -> {
-                    if (reply.succeeded()) {
-                        long removedCount = reply.result().getDocModified();
-                        if (removedCount == 0) {
-                            message.reply(new JsonObject(), new DeliveryOptions().addHeader(ErrorCodes.DB_ERROR.name(), "Element not found"));
-                        } else {
-                            message.reply(null);
-                        }
-                    } else {
-                        message.fail(ErrorCodes.DB_ERROR.ordinal(), reply.cause().getMessage());
-                    }
-                });
+    private void openJournal() throws IOException {
+        String directory = config().getString(CONFIG_JOURNAL_DIRECTORY);
+        if (directory == null) {
+            return;
+        }
+        journal = new WriteAheadJournal(Paths.get(directory, this.getEntityName()),
+                config().getInteger(CONFIG_JOURNAL_SEGMENT_BYTES, 64 * 1024 * 1024),
+                config().getInteger(CONFIG_JOURNAL_MAX_SEGMENTS, 16));
+        String metric = this.getEntityName() + ".journal.";
+        UtilsMetrics.gauge(metric + "pendingRecords", journal::getPendingRecords);
+        UtilsMetrics.gauge(metric + "pendingBytes", journal::getPendingBytes);
+        UtilsMetrics.gauge(metric + "replayLagMS", journal::getReplayLag);
+        vertx.setPeriodic(config().getLong(CONFIG_JOURNAL_REPLAY_INTERVAL, 1000L), id -> this.replayJournal());
     }
 
     /**
-     * Execute the count query of all elements in the table of this verticle
+     * Indicates if a write must be appended to the journal instead of sent to mongo, to keep the order of the writes
+     * every write goes to the journal while it has writes pending of replay
+     *
+     * @param cause the error of the write sent to mongo, null if it was not sent
+     * @return true if the journal is enabled and has writes pending or the error is because mongo is unreachable
+     */
+    private boolean mustJournal(Throwable cause) {
+        return journal != null && (journal.hasPending() || isUnreachable(cause));
+    }
+
+    /**
+     * Appends a write to the journal and replies it as done with the header "journaled", when the write was sent to
+     * mongo and failed is only appended if mongo was unreachable, otherwise the error is replied even if the journal
+     * has writes pending
      *
      * @param message message from the event bus
+     * @param operation the write to append: {"insert": document}, {"query": query, "update": update} or
+     * {"delete": query}
+     * @param reply the body of the reply
+     * @param cause the error of the write sent to mongo, null if it was not sent
      */
-    protected void count(Message<JsonObject> message) {
-        this.dbClient.count(this.getEntityName(), new JsonObject(), reply -> {
-            if (reply.succeeded()) {
-                message.reply(reply.result());
+    private void journal(Message<JsonObject> message, JsonObject operation, JsonObject reply, Throwable cause) {
+        if (cause != null && !isUnreachable(cause)) {
+            message.fail(ErrorCodes.DB_ERROR.ordinal(), cause.getMessage());
+            return;
+        }
+        try {
+            if (journal.append(operation)) {
+                UtilsMetrics.increment(this.getEntityName() + ".journal.appended");
+                message.reply(reply, new DeliveryOptions().addHeader(JOURNALED, "true"));
             } else {
-                message.fail(ErrorCodes.DB_ERROR.ordinal(), reply.cause().getMessage());
+                message.fail(ErrorCodes.DB_ERROR.ordinal(), "The journal of writes is full");
             }
-        });
+        } catch (IOException e) {
+            message.fail(ErrorCodes.DB_ERROR.ordinal(), e.getMessage());
+        }
     }
 
     /**
-     * adds the query param to a json object with the structure of the comparators
-     *
-     * @param ob object to set the queries
-     * @param query query param with the properties and values coma separated
+     * Replays in order the next batch of writes of the journal with a single ordered bulk write and moves the
+     * checkpoint after the writes applied, the inserts are replaced by id so a batch replayed twice after a crash does
+     * not duplicate documents and the deletes of documents already deleted are ignored. When a write of the batch fails the writes before it are already applied and are
+     * committed: the write is discarded if mongo rejected the document, like a repeated unique value or a failed
+     * validation, otherwise it is retried with the rest of the batch in the next interval
      */
-    private void addQueriestoObject(JsonObject ob, String query) {
-        String[] queries = query.split(",");
-        for (String q : queries) {
-            ModelSelector modelSelector = whereSelection(q);
-            if (modelSelector != null) {
-                String[] values = q.split(modelSelector.getSelector());
-                if (values[1].matches("-?\\d+(\\.\\d+)?")) { //if is number
-                    ob.put(values[0], new JsonObject().put(modelSelector.getComparator(), Double.parseDouble(values[1])));
+    private void replayJournal() {
+        if (journal == null || replaying || !journal.hasPending()) {
+            return;
+        }
+        List<JsonObject> records = journal.peek(config().getInteger(CONFIG_JOURNAL_REPLAY_BATCH_SIZE, 500));
+        List<BulkOperation> operations = new ArrayList<>(records.size());
+        for (JsonObject record : records) {
+            JsonObject insert = record.getJsonObject("insert");
+            if (insert != null) {
+                operations.add(BulkOperation.createReplace(new JsonObject().put("_id", insert.getValue("_id")), insert, true));
+            } else if (record.containsKey("delete")) {
+                operations.add(BulkOperation.createDelete(record.getJsonObject("delete")));
+            } else {
+                operations.add(BulkOperation.createUpdate(record.getJsonObject("query"), record.getJsonObject("update"), false, false));
+            }
+        }
+        replaying = true;
+        this.dbClient.bulkWriteWithOptions(this.getEntityName(), operations, new BulkWriteOptions(true), reply -> {
+            replaying = false;
+            for (JsonObject record : records) {
+                this.invalidateCached(record.containsKey("insert") ? record.getJsonObject("insert")
+                        : record.containsKey("delete") ? record.getJsonObject("delete") : record.getJsonObject("query"));
+            }
+            String metric = this.getEntityName() + ".journal.";
+            int applied = 0;
+            int rejected = 0;
+            if (reply.succeeded()) {
+                applied = records.size();
+            } else if (reply.cause() instanceof MongoBulkWriteException) {
+                MongoBulkWriteException bulkError = (MongoBulkWriteException) reply.cause();
+                if (bulkError.getWriteErrors().isEmpty()) {
+                    applied = records.size(); //only the write concern failed, the writes are in the primary
+                    UtilsLog.error("Write concern of the journal of " + this.getEntityName() + " not satisfied", bulkError);
                 } else {
-                    ob.put(values[0], new JsonObject().put(modelSelector.getComparator(), values[1]));
+                    BulkWriteError error = bulkError.getWriteErrors().get(0); //the batch is ordered, stops in the first
+                    applied = error.getIndex();
+                    if (!UNAVAILABLE_CODES.contains(error.getCode())) {
+                        rejected = 1;
+                        UtilsLog.error("Write of the journal of " + this.getEntityName() + " rejected: " + records.get(applied).encode(), bulkError);
+                        UtilsMetrics.increment(metric + "rejected");
+                    }
                 }
+            } else if (!isUnreachable(reply.cause())) {
+                UtilsLog.error("Could not replay the journal of " + this.getEntityName() + ", retrying", reply.cause());
             }
-        }
+            if (applied + rejected == 0) {
+                return; //retried in the next interval
+            }
+            UtilsMetrics.add(metric + "replayed", applied);
+            for (JsonObject record : records.subList(0, applied)) {
+                if (record.containsKey("insert")) {
+                    this.putUniqueValues(record.getJsonObject("insert"));
+                }
+            }
+            try {
+                journal.commit(applied + rejected);
+            } catch (IOException e) {
+                UtilsLog.error("Could not delete the replayed segments of the journal of " + this.getEntityName(), e);
+            }
+            this.scheduleReconcile();
+            this.replayJournal();
+        });
     }
 
     /**
-     * check if there is a where condition in a selection
+     * Indicates if an error is because mongo can not be reached or has no primary, so the write was not applied. The
+     * errors of the write concern are not included, the write was applied in the primary
      *
-     * @param selection the field selection
-     * @return the operator to use in the where clause like '=' or '!=' or null is does not have one
+     * @param error the error of an operation
+     * @return true if the error is of the connection, of the selection of the server or of a server without primary
      */
-    private ModelSelector whereSelection(String selection) {
-        ModelSelector model = null;
-        if (selection.contains(">=")) {
-            model = new ModelSelector(">=", "$gte");
+    private static boolean isUnreachable(Throwable error) {
+        if (error instanceof MongoSocketException || error instanceof MongoTimeoutException
+                || error instanceof MongoNotPrimaryException || error instanceof MongoNodeIsRecoveringException) {
+            return true;
         }
-        if (selection.contains("<=")) {
-            model = new ModelSelector("<=", "$lte");
+        return error instanceof MongoServerException && !(error instanceof MongoWriteConcernException)
+                && UNAVAILABLE_CODES.contains(((MongoServerException) error).getCode());
+    }
+
+    /**
+     * Counts a document created and adds the values of its unique fields to the filters
+     *
+     * @param document the document created
+     */
+    private void created(JsonObject document) {
+        counters.created(document);
+        this.putUniqueValues(document);
+    }
+
+    /**
+     * Fields of the entity that can not have repeated values, by default the fields of the unique indexes of a single
+     * field declared in {@link #getIndexes()}. The filters only avoid the queries of the values never seen and every
+     * instance of the verticle has its own filters, so a field returned by an override still needs a unique index in
+     * the collection to reject the repeated values written by other instances
+     *
+     * @return the names of the unique fields
+     */
+    protected List<String> getUniqueFields() {
+        List<String> fields = new ArrayList<>();
+        for (JsonObject index : this.getIndexes()) {
+            JsonObject key = index.getJsonObject("key");
+            if (index.getBoolean("unique", false) && key != null && key.size() == 1) {
+                fields.add(key.fieldNames().iterator().next());
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Creates the filters of the unique fields and loads them with the values in the collection from the primary, a
+     * value missing in a lagging secondary would be a false negative of the filter. While the load is not complete
+     * every value is confirmed in the database
+     */
+    private void loadUniqueFilters() {
+        List<String> fields = this.getUniqueFields();
+        if (fields.isEmpty()) {
+            return;
+        }
+        long expectedValues = config().getLong(CONFIG_UNIQUE_FILTER_EXPECTED_VALUES, 1_000_000L);
+        JsonObject projection = new JsonObject();
+        for (String field : fields) {
+            uniqueFilters.put(field, new BloomFilter(expectedValues, 0.01));
+            projection.put(field, 1);
+        }
+        FindOptions options = new FindOptions().setFields(projection).setBatchSize(1000);
+        this.dbClient.findBatchWithOptions(this.getEntityName(), new JsonObject(), options)
+                .exceptionHandler(e -> UtilsLog.error("Could not load the unique values of " + this.getEntityName(), e))
+                .endHandler(v -> uniqueFiltersReady = true)
+                .handler(this::putUniqueValues);
+    }
+
+    /**
+     * Adds the values of the unique fields of a document to the filters
+     *
+     * @param document the document with the values
+     */
+    private void putUniqueValues(JsonObject document) {
+        for (Map.Entry<String, List<Object>> field : this.uniqueValues(document).entrySet()) {
+            BloomFilter filter = uniqueFilters.get(field.getKey());
+            field.getValue().forEach(filter::put);
+        }
+    }
+
+    /**
+     * Values of the unique fields in a document or in the properties of an update, the arrays are taken by element
+     * as the indexes do and the values added with "$push" and "$addToSet" are included. The result of "$inc" is not
+     * known before the write, a repeated value is detected by the index
+     *
+     * @param document the document or the properties of an update
+     * @return the values of every unique field present
+     */
+    private Map<String, List<Object>> uniqueValues(JsonObject document) {
+        Map<String, List<Object>> values = new HashMap<>();
+        for (String field : uniqueFilters.keySet()) {
+            List<Object> fieldValues = new ArrayList<>();
+            Object value = document.getValue(field);
+            if (value instanceof JsonArray) {
+                ((JsonArray) value).stream().filter(element -> element != null).forEach(fieldValues::add);
+            } else if (value != null) {
+                fieldValues.add(value);
+            }
+            for (String operator : ARRAY_OPERATORS) {
+                Object operand = document.getValue(operator);
+                Object added = operand instanceof JsonObject ? ((JsonObject) operand).getValue(field) : null;
+                if (added instanceof JsonObject && ((JsonObject) added).getValue("$each") instanceof JsonArray) {
+                    ((JsonObject) added).getJsonArray("$each").stream().filter(element -> element != null).forEach(fieldValues::add);
+                } else if (added != null) {
+                    fieldValues.add(added);
+                }
+            }
+            if (!fieldValues.isEmpty()) {
+                values.put(field, fieldValues);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Looks for a document with the same value of any unique field of a document or an update, only the values that
+     * the filters can not discard are searched in the database
+     *
+     * @param document the document or the properties of the update to check
+     * @param excludeId the id of the document to not compare with, null to compare with all
+     * @param handler the handler of the name of the field repeated, null if there is no one
+     */
+    private void findDuplicate(JsonObject document, Object excludeId, Handler<AsyncResult<String>> handler) {
+        JsonArray conditions = new JsonArray();
+        JsonObject projection = new JsonObject();
+        Map<String, List<Object>> values = this.uniqueValues(document);
+        for (Map.Entry<String, List<Object>> field : values.entrySet()) {
+            BloomFilter filter = uniqueFilters.get(field.getKey());
+            for (Object value : field.getValue()) {
+                if (!uniqueFiltersReady || filter.mightContain(value)) {
+                    conditions.add(new JsonObject().put(field.getKey(), value));
+                    projection.put(field.getKey(), 1);
+                }
+            }
+        }
+        if (conditions.isEmpty()) {
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+        JsonObject query = new JsonObject().put("$or", conditions);
+        if (excludeId != null) {
+            query.put("_id", new JsonObject().put("$ne", excludeId));
+        }
+        this.dbClient.findOne(this.getEntityName(), query, projection, reply -> {
+            if (reply.failed()) {
+                handler.handle(Future.failedFuture(reply.cause()));
+                return;
+            }
+            String field = null;
+            if (reply.result() != null) {
+                field = projection.fieldNames().iterator().next(); //numbers of different types are not equal
+                for (String name : projection.fieldNames()) {
+                    Object existing = reply.result().getValue(name);
+                    if (values.get(name).stream().anyMatch(value -> value.equals(existing)
+                            || existing instanceof JsonArray && ((JsonArray) existing).contains(value))) {
+                        field = name;
+                        break;
+                    }
+                }
+            }
+            handler.handle(Future.succeededFuture(field));
+        });
+    }
+
+    /**
+     * Replies the error of a value of a unique field that already exists
+     *
+     * @param message message from the event bus
+     * @param field the name of the field, null if it is unknown
+     */
+    private void replyDuplicate(Message<JsonObject> message, String field) {
+        message.reply(new JsonObject()
+                .put("name", field == null ? "unique" : field)
+                .put("error", UtilsValidation.ALREADY_EXISTS),
+                new DeliveryOptions().addHeader(ErrorCodes.DB_ERROR.name(), (field == null ? "unique" : field) + " " + UtilsValidation.ALREADY_EXISTS));
+    }
+
+    /**
+     * Indicates if an error of a write is a repeated value of a unique index, the updates with "findAndModify" fail
+     * with the error of the command instead of the error of the write
+     */
+    private static boolean isDuplicateKey(Throwable error) {
+        if (error instanceof MongoCommandException) {
+            return ErrorCategory.fromErrorCode(((MongoCommandException) error).getErrorCode()) == ErrorCategory.DUPLICATE_KEY;
+        }
+        return error instanceof MongoWriteException
+                && ((MongoWriteException) error).getError().getCategory() == ErrorCategory.DUPLICATE_KEY;
+    }
+
+    /**
+     * Execute the query "create" for every object in the property "documents" of the message in a single bulk write,
+     * replies the number of inserted elements and the errors of the elements that could not be inserted with the index
+     * of the element in the chunk
+     *
+     * @param message message from the event bus
+     */
+    protected void importData(Message<JsonObject> message) {
+        JsonArray documents = message.body().getJsonArray("documents", new JsonArray());
+        List<BulkOperation> operations = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            operations.add(BulkOperation.createInsert(documents.getJsonObject(i)));
+        }
+        if (operations.isEmpty()) {
+            message.reply(new JsonObject().put("inserted", 0).put("errors", new JsonArray()));
+            return;
+        }
+        BulkWriteOptions options = new BulkWriteOptions(false).setWriteOption(this.getWriteOption(Action.IMPORT));
+        this.dbClient.bulkWriteWithOptions(this.getEntityName(), operations, options, reply -> {
+            if (reply.succeeded()) {
+                //the result is null when the write concern is unacknowledged
+                long inserted = reply.result() != null ? reply.result().getInsertedCount() : documents.size();
+                for (int i = 0; i < documents.size(); i++) {
+                    this.created(documents.getJsonObject(i));
+                }
+                message.reply(new JsonObject()
+                        .put("inserted", inserted)
+                        .put("errors", new JsonArray()));
+            } else if (reply.cause() instanceof MongoBulkWriteException) {
+                MongoBulkWriteException ex = (MongoBulkWriteException) reply.cause();
+                JsonArray errors = new JsonArray();
+                Set<Integer> failed = new HashSet<>();
+                for (BulkWriteError writeError : ex.getWriteErrors()) {
+                    failed.add(writeError.getIndex());
+                    errors.add(new JsonObject()
+                            .put("index", writeError.getIndex())
+                            .put("error", writeError.getMessage()));
+                }
+                for (int i = 0; i < documents.size(); i++) {
+                    if (!failed.contains(i)) {
+                        this.created(documents.getJsonObject(i));
+                    }
+                }
+                message.reply(new JsonObject()
+                        .put("inserted", ex.getWriteResult().getInsertedCount())
+                        .put("errors", errors));
+            } else {
+                message.fail(ErrorCodes.DB_ERROR.ordinal(), reply.cause().getMessage());
+            }
+        });
+    }
+
+    /**
+     * Execute the query "update" generated by the properties of the object in the message
+     *
+     * @param message message from the event bus
+     */
+    protected void update(Message<JsonObject> message) {
+        if (this.mustJournal(null)) {
+            this.updateChecked(message); //the unique values are verified by the indexes when the journal is replayed
+            return;
+        }
+        this.findDuplicate(message.body(), message.body().getValue("_id"), duplicate -> {
+            if (duplicate.failed() && this.mustJournal(duplicate.cause())) {
+                this.updateChecked(message);
+            } else if (duplicate.failed()) {
+                message.fail(ErrorCodes.DB_ERROR.ordinal(), duplicate.cause().getMessage());
+            } else if (duplicate.result() != null) {
+                this.replyDuplicate(message, duplicate.result());
+            } else {
+                this.updateChecked(message);
+            }
+        });
+    }
+
+    /**
+     * Execute the query "update" of a message with the unique values already checked
+     *
+     * @param message message from the event bus
+     */
+    private void updateChecked(Message<JsonObject> message) {
+        JsonObject query = new JsonObject()
+                .put("_id", message.body().getString("_id"));
+        JsonObject body = message.body();
+        body.remove("_id");
+        JsonObject set = new JsonObject();
+        JsonObject update = new JsonObject();
+        Set<String> changedFields = new HashSet<>();
+        for (Map.Entry<String, Object> property : body) {
+            if (!property.getKey().startsWith("$")) {
+                set.put(property.getKey(), property.getValue());
+                changedFields.add(property.getKey());
+                continue;
+            }
+            String error = this.validateAtomicOperator(property.getKey(), property.getValue());
+            if (error != null) {
+                message.reply(new JsonObject(), new DeliveryOptions().addHeader(ErrorCodes.DB_ERROR.name(), error));
+                return;
+            }
+            update.put(property.getKey(), property.getValue());
+            changedFields.addAll(((JsonObject) property.getValue()).fieldNames());
+        }
+        if (!set.isEmpty()) {
+            update.put("$set", set);
+        }
+        boolean changesCounters = changedFields.contains("active") || counters.getFields().stream().anyMatch(changedFields::contains);
+        this.updateOne(message, Action.UPDATE, query, update, exact -> {
+            if (changesCounters) {
+                this.scheduleReconcile();
+            }
+            this.putUniqueValues(body);
+        });
+    }
+
+    /**
+     * Verifies an atomic operator of an update, only "$inc" with numbers and "$push" and "$addToSet" with values or
+     * with "$each" and an array of values are allowed, the audit fields can not be changed
+     *
+     * @param operator the name of the operator
+     * @param value the fields of the operator
+     * @return the error of the operator, null if it is valid
+     */
+    private String validateAtomicOperator(String operator, Object value) {
+        if (!ATOMIC_OPERATORS.contains(operator) || !(value instanceof JsonObject)) {
+            return "Invalid operator " + operator;
+        }
+        for (Map.Entry<String, Object> field : (JsonObject) value) {
+            if (!FIELD_NAME.matcher(field.getKey()).matches()) {
+                return "Invalid field " + field.getKey() + " in " + operator;
+            }
+            if (AUDIT_FIELDS.contains(field.getKey().split("\\.")[0])) {
+                return "The field " + field.getKey() + " can not be changed with " + operator;
+            }
+            if ("$inc".equals(operator) && !(field.getValue() instanceof Number)) {
+                return "The field " + field.getKey() + " in $inc must be a number";
+            }
+            if (field.getValue() instanceof JsonObject) {
+                JsonObject modifiers = (JsonObject) field.getValue();
+                boolean onlyEach = modifiers.size() == 1 && modifiers.getValue("$each") instanceof JsonArray;
+                if (!onlyEach && modifiers.fieldNames().stream().anyMatch(name -> name.startsWith("$"))) {
+                    return "Only $each is allowed in " + operator;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Updates one document, when the message has the header "return_new" the document is updated and returned in a
+     * single operation with the fields of the header "select" coma separated, otherwise is updated with the write
+     * concern of the action
+     *
+     * @param message message from the event bus
+     * @param action the action of the update
+     * @param query the condition of the document to update
+     * @param update the operators of the update
+     * @param onUpdated handler when the document is updated, receives true if the document was changed or false if it
+     * is unknown
+     */
+    private void updateOne(Message<JsonObject> message, Action action, JsonObject query, JsonObject update, Handler<Boolean> onUpdated) {
+        JsonObject journalUpdate = new JsonObject().put("query", query).put("update", update);
+        this.invalidateCached(query);
+        if (this.mustJournal(null)) {
+            this.journal(message, journalUpdate, null, null);
+            return;
+        }
+        if (message.headers().contains(RETURN_NEW)) {
+            FindOptions findOptions = new FindOptions();
+            String select = message.headers().get(SELECT);
+            if (select != null && !select.isEmpty()) {
+                JsonObject fields = new JsonObject();
+                for (String field : select.split(",")) {
+                    if (!FIELD_NAME.matcher(field).matches()) {
+                        message.reply(new JsonObject(), new DeliveryOptions().addHeader(ErrorCodes.DB_ERROR.name(), "Invalid field to select: " + field));
+                        return;
+                    }
+                    fields.put(field, 1);
+                }
+                findOptions.setFields(fields);
+            }
+            UpdateOptions options = new UpdateOptions().setReturningNewDocument(true);
+            this.dbClient.findOneAndUpdateWithOptions(this.getEntityName(), query, update, findOptions, options, reply -> {
+                this.invalidateCached(query);
+                if (reply.succeeded()) {
+                    if (reply.result() == null) {
+                        message.reply(new JsonObject(), new DeliveryOptions().addHeader(ErrorCodes.DB_ERROR.name(), "Element not found"));
+                    } else {
+                        onUpdated.handle(false);
+                        message.reply(reply.result());
+                    }
+                } else if (isDuplicateKey(reply.cause())) {
+                    this.replyDuplicate(message, null);
+                } else {
+                    this.journal(message, journalUpdate, null, reply.cause());
+                }
+            });
+            return;
+        }
+        UpdateOptions options = new UpdateOptions().setWriteOption(this.getWriteOption(action));
+        this.dbClient.updateCollectionWithOptions(this.getEntityName(), query, update, options, reply -> {
+            this.invalidateCached(query);
+            if (reply.succeeded()) {
+                //the result is null when the write concern is unacknowledged
+                if (reply.result() != null && reply.result().getDocModified() == 0) {
+                    message.reply(new JsonObject(), new DeliveryOptions().addHeader(ErrorCodes.DB_ERROR.name(), "Element not found"));
+                } else {
+                    onUpdated.handle(reply.result() != null);
+                    message.reply(null);
+                }
+            } else if (isDuplicateKey(reply.cause())) {
+                this.replyDuplicate(message, null);
+            } else {
+                this.journal(message, journalUpdate, null, reply.cause());
+            }
+        });
+    }
+
+    /**
+     * Execute the count query of all elements in the table of this verticle, answered from the counters in memory
+     * once they are reconciled with the database, with the property "active" counts only the active elements and with
+     * the property "by" replies the count of every value of a counted field
+     *
+     * @param message message from the event bus
+     */
+    protected void count(Message<JsonObject> message) {
+        JsonObject body = message.body() == null ? new JsonObject() : message.body();
+        String by = body.getString("by");
+        boolean active = "true".equals(body.getString("active"));
+        if (by != null && !counters.getFields().contains(by)) {
+            message.reply(new JsonObject(), new DeliveryOptions().addHeader(ErrorCodes.DB_ERROR.name(), "The field " + by + " is not counted"));
+        } else if (by != null && counters.isReady()) {
+            message.reply(counters.getByField(by));
+        } else if (by != null) {
+            this.runAggregate(countByPipeline(by), Integer.MAX_VALUE, reply -> {
+                if (reply.succeeded()) {
+                    message.reply(new JsonObject(new HashMap<>(countsByValue(reply.result()))));
+                } else {
+                    message.fail(ErrorCodes.DB_ERROR.ordinal(), reply.cause().getMessage());
+                }
+            });
+        } else if (counters.isReady()) {
+            message.reply(active ? counters.getActive() : counters.getTotal());
+        } else {
+            JsonObject query = active ? new JsonObject().put("active", true) : new JsonObject();
+            this.dbReadClient.count(this.getEntityName(), query, reply -> {
+                if (reply.succeeded()) {
+                    message.reply(reply.result());
+                } else {
+                    message.fail(ErrorCodes.DB_ERROR.ordinal(), reply.cause().getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Execute the query "select group, sum(), avg(), min(), max() from table where ? group by" with the specification
+     * in the properties "query", "group", "sum", "avg", "min", "max" and "facet" of the body, the properties are
+     * fields coma separated and "query" has the same format of "findAll", ex: {"query": "amount>10", "group": "city",
+     * "sum": "amount"}. Replies the groups sorted by count, limited to the max page size of the entity, or the object
+     * of the facets when there is "facet" with every facet limited the same way, with the header "truncated" when any
+     * result was cut
+     *
+     * @param message message from the event bus
+     */
+    protected void aggregate(Message<JsonObject> message) {
+        JsonObject spec = new JsonObject();
+        for (String property : new String[]{"query", "group", "sum", "avg", "min", "max", "facet"}) {
+            String value = message.body().getString(property);
+            if (value != null) {
+                spec.put(property, value);
+            }
+        }
+        int maxResults = this.getPageLimit(CONFIG_MAX_PAGE_SIZE, 1000);
+        JsonArray pipeline;
+        try {
+            pipeline = aggregatePipelines.get(spec, this::getQueryObject, maxResults + 1);
+        } catch (IllegalArgumentException e) {
+            message.reply(new JsonObject(), new DeliveryOptions().addHeader(ErrorCodes.DB_ERROR.name(), e.getMessage()));
+            return;
+        }
+        this.runAggregate(pipeline, maxResults + 1, reply -> {
+            if (reply.failed()) {
+                message.fail(ErrorCodes.DB_ERROR.ordinal(), reply.cause().getMessage());
+            } else if (spec.containsKey("facet")) {
+                JsonObject facets = reply.result().getJsonObject(0);
+                boolean truncated = false;
+                for (String facet : facets.fieldNames()) {
+                    JsonArray results = facets.getJsonArray(facet);
+                    if (results.size() > maxResults) {
+                        results.remove(maxResults);
+                        truncated = true;
+                    }
+                }
+                message.reply(facets, truncated ? new DeliveryOptions().addHeader(TRUNCATED, "true") : new DeliveryOptions());
+            } else if (reply.result().size() > maxResults) {
+                reply.result().remove(maxResults);
+                message.reply(reply.result(), new DeliveryOptions().addHeader(TRUNCATED, "true"));
+            } else {
+                message.reply(reply.result());
+            }
+        });
+    }
+
+    /**
+     * Indicates if a field can be used in the action "aggregate", by default any name of a field or a subfield with
+     * dots, override to restrict the fields of this entity
+     *
+     * @param field the name of the field
+     * @return true if the field can be aggregated
+     */
+    protected boolean isAggregableField(String field) {
+        return FIELD_NAME.matcher(field).matches();
+    }
+
+    /**
+     * Indicates if a sort can be executed, the sorts that are a prefix of the key of an index, in the same or the
+     * inverse direction, are always allowed, the rest are sorted in memory by mongo and are only allowed when the
+     * results to sort are no more than the property "unindexedSortMaxResults" of the page limits of the entity
+     *
+     * @param sort the fields of the sort
+     * @param results the number of results to sort, skipped and returned
+     * @return true if the sort can be executed
+     */
+    protected boolean isSortAllowed(JsonObject sort, long results) {
+        if (sort == null || sort.isEmpty()) {
+            return true;
+        }
+        for (JsonObject key : indexKeys) {
+            if (isSortPrefix(sort, key)) {
+                return true;
+            }
+        }
+        return results <= this.getPageLimit(CONFIG_UNINDEXED_SORT_MAX_RESULTS, 1000);
+    }
+
+    /**
+     * Indexes of the entity created when the verticle starts, by default is taken from the array
+     * "indexes.{entityName}" of the configuration, ex: {"indexes": {"client": [{"key": {"created_at": -1}},
+     * {"key": {"email": 1}, "unique": true}]}}
+     *
+     * @return the indexes with the properties "key" and optionally "unique" and "name"
+     */
+    protected List<JsonObject> getIndexes() {
+        JsonObject indexesConfig = config().getJsonObject(CONFIG_INDEXES);
+        List<JsonObject> indexes = new ArrayList<>();
+        if (indexesConfig != null && indexesConfig.getJsonArray(this.getEntityName()) != null) {
+            for (Object index : indexesConfig.getJsonArray(this.getEntityName())) {
+                indexes.add((JsonObject) index);
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Creates the indexes of the entity and loads the keys of all the indexes of the collection
+     */
+    private void createIndexes() {
+        indexKeys.add(new JsonObject().put("_id", 1));
+        @SuppressWarnings("rawtypes") //CompositeFuture.all only takes a list of raw futures
+        List<Future> created = new ArrayList<>();
+        for (JsonObject index : this.getIndexes()) {
+            JsonObject key = index.getJsonObject("key");
+            indexKeys.add(key);
+            IndexOptions options = new IndexOptions().unique(index.getBoolean("unique", false));
+            if (index.getString("name") != null) {
+                options.name(index.getString("name"));
+            }
+            Future<Void> future = Future.future();
+            this.dbClient.createIndexWithOptions(this.getEntityName(), key, options, future);
+            created.add(future.recover(e -> {
+                UtilsLog.error("Could not create the index " + key.encode() + " of " + this.getEntityName(), e);
+                return Future.succeededFuture();
+            }));
+        }
+        CompositeFuture.all(created).setHandler(c -> {
+            this.dbClient.listIndexes(this.getEntityName(), reply -> {
+                if (reply.succeeded()) {
+                    List<JsonObject> keys = new ArrayList<>();
+                    for (Object index : reply.result()) {
+                        keys.add(((JsonObject) index).getJsonObject("key"));
+                    }
+                    indexKeys.clear();
+                    indexKeys.addAll(keys);
+                }
+            });
+        });
+    }
+
+    /**
+     * Indicates if the fields of a sort are the first fields of the key of an index, all in the same direction or
+     * all in the inverse direction
+     *
+     * @param sort the fields of the sort
+     * @param key the key of the index
+     * @return true if the index can resolve the sort
+     */
+    private static boolean isSortPrefix(JsonObject sort, JsonObject key) {
+        if (key == null || sort.size() > key.size()) {
+            return false;
+        }
+        Iterator<Map.Entry<String, Object>> keyFields = key.iterator();
+        Boolean inverse = null;
+        for (Map.Entry<String, Object> sortField : sort) {
+            Map.Entry<String, Object> keyField = keyFields.next();
+            if (!sortField.getKey().equals(keyField.getKey()) || !(keyField.getValue() instanceof Number)) {
+                return false;
+            }
+            boolean same = Math.signum(((Number) sortField.getValue()).doubleValue()) == Math.signum(((Number) keyField.getValue()).doubleValue());
+            if (inverse == null) {
+                inverse = !same;
+            } else if (inverse == same) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs a pipeline of aggregation in the collection of the entity, the cursor is followed with "getMore" until it
+     * is exhausted or has the max number of results, so the results are not cut at the first batch of the reply
+     *
+     * @param pipeline the stages of the aggregation
+     * @param maxResults max number of results to read
+     * @param handler the handler of the results
+     */
+    private void runAggregate(JsonArray pipeline, int maxResults, Handler<AsyncResult<JsonArray>> handler) {
+        int batchSize = Math.min(maxResults, 1000);
+        JsonObject command = new JsonObject()
+                .put("aggregate", this.getEntityName())
+                .put("pipeline", pipeline)
+                .put("cursor", new JsonObject().put("batchSize", batchSize));
+        this.dbReadClient.runCommand("aggregate", command, reply -> {
+            if (reply.succeeded()) {
+                JsonObject cursor = reply.result().getJsonObject("cursor");
+                this.readCursor(cursor.getLong("id"), cursor.getJsonArray("firstBatch"), new JsonArray(), maxResults, batchSize, handler);
+            } else {
+                handler.handle(Future.failedFuture(reply.cause()));
+            }
+        });
+    }
+
+    /**
+     * Adds a batch of a cursor to the results and requests the next batch while the cursor is open and the results
+     * are less than the max, the cursor is closed when it is not exhausted
+     *
+     * @param cursorId the id of the cursor, 0 when it is exhausted
+     * @param batch the documents of the last batch
+     * @param results the documents read until now
+     * @param maxResults max number of results to read
+     * @param batchSize number of documents per batch
+     * @param handler the handler of the results
+     */
+    private void readCursor(long cursorId, JsonArray batch, JsonArray results, int maxResults, int batchSize, Handler<AsyncResult<JsonArray>> handler) {
+        for (int i = 0; i < batch.size() && results.size() < maxResults; i++) {
+            results.add(batch.getValue(i));
+        }
+        if (cursorId == 0 || results.size() >= maxResults) {
+            if (cursorId != 0) {
+                this.dbReadClient.runCommand("killCursors", new JsonObject()
+                        .put("killCursors", this.getEntityName())
+                        .put("cursors", new JsonArray().add(cursorId)), killed -> {
+                });
+            }
+            handler.handle(Future.succeededFuture(results));
+            return;
+        }
+        JsonObject command = new JsonObject()
+                .put("getMore", cursorId)
+                .put("collection", this.getEntityName())
+                .put("batchSize", batchSize);
+        this.dbReadClient.runCommand("getMore", command, reply -> {
+            if (reply.succeeded()) {
+                JsonObject cursor = reply.result().getJsonObject("cursor");
+                this.readCursor(cursor.getLong("id"), cursor.getJsonArray("nextBatch"), results, maxResults, batchSize, handler);
+            } else {
+                handler.handle(Future.failedFuture(reply.cause()));
+            }
+        });
+    }
+
+    /**
+     * Fields of the entity counted by value in memory, by default is taken from the array "counters.{entityName}" of
+     * the configuration, ex: {"counters": {"client": ["type", "city"]}}
+     *
+     * @return the names of the fields to count
+     */
+    protected List<String> getCountedFields() {
+        JsonObject countersConfig = config().getJsonObject(CONFIG_COUNTERS);
+        List<String> fields = new ArrayList<>();
+        if (countersConfig != null && countersConfig.getJsonArray(this.getEntityName()) != null) {
+            for (Object field : countersConfig.getJsonArray(this.getEntityName())) {
+                fields.add(String.valueOf(field));
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Replaces the counters in memory with the counts of the database, correcting the drift of the writes that can
+     * not be counted exactly
+     */
+    private void reconcileCounters() {
+        reconcileScheduled = false;
+        if (counters.isReconciling()) {
+            this.scheduleReconcile();
+            return;
+        }
+        counters.startReconcile();
+        Future<Long> total = Future.future();
+        Future<Long> active = Future.future();
+        //from the primary, the deltas counted meanwhile are merged over these values
+        this.dbClient.count(this.getEntityName(), new JsonObject(), total);
+        this.dbClient.count(this.getEntityName(), new JsonObject().put("active", true), active);
+        @SuppressWarnings("rawtypes") //CompositeFuture.all only takes a list of raw futures
+        List<Future> counts = new ArrayList<>();
+        counts.add(total);
+        counts.add(active);
+        Map<String, Future<JsonArray>> byField = new HashMap<>();
+        for (String field : counters.getFields()) {
+            Future<JsonArray> groups = Future.future();
+            this.runAggregate(countByPipeline(field), Integer.MAX_VALUE, groups);
+            byField.put(field, groups);
+            counts.add(groups);
+        }
+        CompositeFuture.all(counts).setHandler(reply -> {
+            if (reply.failed()) {
+                counters.reconcileFailed();
+                return;
+            }
+            Map<String, Map<String, Long>> values = new HashMap<>();
+            for (Map.Entry<String, Future<JsonArray>> field : byField.entrySet()) {
+                values.put(field.getKey(), countsByValue(field.getValue().result()));
+            }
+            counters.reconciled(total.result(), active.result(), values);
+        });
+    }
+
+    /**
+     * Pipeline that counts the documents by every value of a field
+     *
+     * @param field the name of the field
+     * @return the pipeline of aggregation
+     */
+    private static JsonArray countByPipeline(String field) {
+        return new JsonArray().add(new JsonObject().put("$group", new JsonObject()
+                .put("_id", "$" + field)
+                .put("count", new JsonObject().put("$sum", 1))));
+    }
+
+    /**
+     * Reads the groups of {@link #countByPipeline(String)}
+     *
+     * @param groups the results of the pipeline
+     * @return the count of every value
+     */
+    private static Map<String, Long> countsByValue(JsonArray groups) {
+        Map<String, Long> byValue = new HashMap<>();
+        for (int i = 0; i < groups.size(); i++) {
+            JsonObject group = groups.getJsonObject(i);
+            byValue.put(String.valueOf(group.getValue("_id")), group.getLong("count"));
+        }
+        return byValue;
+    }
+
+    /**
+     * Reconciles the counters in a second, after a write that can not be counted exactly
+     */
+    private void scheduleReconcile() {
+        if (!reconcileScheduled) {
+            reconcileScheduled = true;
+            vertx.setTimer(1000, id -> this.reconcileCounters());
+        }
+    }
+
+    /**
+     * adds the query param to a json object with the structure of the comparators
+     *
+     * @param ob object to set the queries
+     * @param query query param with the properties and values coma separated
+     */
+    private void addQueriestoObject(JsonObject ob, String query) {
+        String[] queries = query.split(",");
+        for (String q : queries) {
+            ModelSelector modelSelector = whereSelection(q);
+            if (modelSelector != null) {
+                String[] values = q.split(modelSelector.getSelector());
+                if (values[1].matches("-?\\d+(\\.\\d+)?")) { //if is number
+                    ob.put(values[0], new JsonObject().put(modelSelector.getComparator(), Double.parseDouble(values[1])));
+                } else {
+                    ob.put(values[0], new JsonObject().put(modelSelector.getComparator(), values[1]));
+                }
+            }
+        }
+    }
+
+    /**
+     * check if there is a where condition in a selection
+     *
+     * @param selection the field selection
+     * @return the operator to use in the where clause like '=' or '!=' or null is does not have one
+     */
+    private ModelSelector whereSelection(String selection) {
+        ModelSelector model = null;
+        if (selection.contains(">=")) {
+            model = new ModelSelector(">=", "$gte");
+        }
+        if (selection.contains("<=")) {
+            model = new ModelSelector("<=", "$lte");
         }
         if (selection.contains("!=")) {
             model = new ModelSelector("!=", "$ne");
@@ -305,6 +1695,57 @@ public abstract class DBVerticle extends AbstractVerticle {
         return model;
     }
 
+    /**
+     * Name of the pool of connections to the database used by this verticle, the verticles with the same pool name
+     * share the connections, override to isolate this entity from the others
+     *
+     * @return the name of the pool of connections
+     */
+    protected String getPoolName() {
+        return MongoClient.DEFAULT_POOL_NAME;
+    }
+
+    /**
+     * Configuration of the pool of connections of this verticle, is the configuration of the verticle with the
+     * properties of the object "pools.{poolName}" of the configuration merged in, ex: maxPoolSize, waitQueueMultiple,
+     * readPreference
+     *
+     * @return the configuration to create the pool of connections
+     */
+    protected JsonObject getPoolConfig() {
+        JsonObject poolConfig = config().copy();
+        poolConfig.remove(CONFIG_POOLS);
+        JsonObject pools = config().getJsonObject(CONFIG_POOLS);
+        if (pools != null && pools.getJsonObject(this.getPoolName()) != null) {
+            poolConfig.mergeIn(pools.getJsonObject(this.getPoolName()));
+        }
+        return poolConfig;
+    }
+
+    /**
+     * Write concern of an action in this entity, by default is taken from the object "writeConcerns.{entityName}" of
+     * the configuration with the name of the action as key or "default" for the rest of actions, ex: {"CREATE":
+     * "UNACKNOWLEDGED", "default": "MAJORITY"}, the values are the names of {@link WriteOption}
+     *
+     * @param action the action that writes in the database
+     * @return the write concern to use, null to use the write concern of the client
+     */
+    protected WriteOption getWriteOption(Action action) {
+        if (!writeOptions.containsKey(action)) {
+            WriteOption writeOption = null;
+            JsonObject writeConcerns = config().getJsonObject(CONFIG_WRITE_CONCERNS);
+            if (writeConcerns != null && writeConcerns.getJsonObject(this.getEntityName()) != null) {
+                JsonObject entityConcerns = writeConcerns.getJsonObject(this.getEntityName());
+                String name = entityConcerns.getString(action.name(), entityConcerns.getString("default"));
+                if (name != null) {
+                    writeOption = WriteOption.valueOf(name);
+                }
+            }
+            writeOptions.put(action, writeOption);
+        }
+        return writeOptions.get(action);
+    }
+
     /**
      * Need to especifie the name of the entity
      *
@@ -339,4 +1780,55 @@ public abstract class DBVerticle extends AbstractVerticle {
         }
 
     }
+
+    /**
+     * Pipe from a cursor of the database to an address of the event bus, sends the documents in chunks of newline
+     * delimited json and pauses the cursor until the receiver replies the chunk
+     */
+    private class ExportStream {
+
+        private final String address;
+        private final ReadStream<JsonObject> cursor;
+        private final int chunkSize;
+        private final DeliveryOptions chunkOptions;
+        private Buffer chunk = Buffer.buffer();
+        private int lines;
+
+        public ExportStream(String address, ReadStream<JsonObject> cursor, int chunkSize) {
+            this.address = address;
+            this.cursor = cursor;
+            this.chunkSize = chunkSize;
+            this.chunkOptions = new DeliveryOptions()
+                    .setSendTimeout(config().getLong(CONFIG_EXPORT_ACK_TIMEOUT, DeliveryOptions.DEFAULT_TIMEOUT));
+        }
+
+        public void start() {
+            cursor.exceptionHandler(t -> {
+                vertx.eventBus().send(address, Buffer.buffer(t.getMessage() == null ? "" : t.getMessage()),
+                        new DeliveryOptions().addHeader(STREAM_STATUS, STREAM_ERROR));
+            });
+            cursor.endHandler(v -> {
+                vertx.eventBus().send(address, chunk, new DeliveryOptions().addHeader(STREAM_STATUS, STREAM_END));
+            });
+            cursor.handler(this::onDocument);
+        }
+
+        private void onDocument(JsonObject document) {
+            chunk.appendString(document.encode()).appendString("\n");
+            lines++;
+            if (lines >= chunkSize) {
+                cursor.pause();
+                vertx.eventBus().send(address, chunk, chunkOptions, ack -> {
+                    if (ack.succeeded()) {
+                        cursor.resume();
+                    } else {
+                        cursor.handler(null); //the receiver is gone, close the cursor
+                    }
+                });
+                chunk = Buffer.buffer();
+                lines = 0;
+            }
+        }
+
+    }
 }
@@ -0,0 +1,183 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package database.commons;
+
+import io.vertx.core.json.JsonObject;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counters of the documents of an entity kept in memory: total, active and by the values of some fields. Are updated
+ * with every write of the verticle and replaced periodically with the counts of the database, the changes made while
+ * a reconciliation is running are applied again over its result. Must be used only from the context of the verticle
+ *
+ * @author Ulises Beltrán Gómez - beltrangomezulises@gmail.com
+ */
+class EntityCounters {
+
+    private final List<String> fields;
+    private Counts counts;
+    private Counts pending;
+    private boolean ready;
+
+    public EntityCounters(List<String> fields) {
+        this.fields = fields;
+        this.counts = new Counts(fields);
+    }
+
+    /**
+     * @return the fields counted by value
+     */
+    public List<String> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return true if the counters were reconciled at least once with the database
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public long getTotal() {
+        return counts.total;
+    }
+
+    public long getActive() {
+        return counts.active;
+    }
+
+    /**
+     * Gets the counts by value of a field
+     *
+     * @param field the name of the field
+     * @return the count of every value of the field, null if the field is not counted
+     */
+    public JsonObject getByField(String field) {
+        Map<String, Long> byValue = counts.byField.get(field);
+        return byValue == null ? null : new JsonObject(new HashMap<>(byValue));
+    }
+
+    /**
+     * Counts a new document
+     *
+     * @param document the document created
+     */
+    public void created(JsonObject document) {
+        this.add(document, 1);
+    }
+
+    /**
+     * Discounts a deleted document
+     *
+     * @param document the document deleted
+     */
+    public void deleted(JsonObject document) {
+        this.add(document, -1);
+    }
+
+    /**
+     * Discounts an active document that was hidden
+     */
+    public void hidden() {
+        counts.active--;
+        if (pending != null) {
+            pending.active--;
+        }
+    }
+
+    /**
+     * @return true while a reconciliation is running
+     */
+    public boolean isReconciling() {
+        return pending != null;
+    }
+
+    /**
+     * Starts a reconciliation, the changes from now are kept to apply them over the counts of the database
+     */
+    public void startReconcile() {
+        pending = new Counts(fields);
+    }
+
+    /**
+     * Replaces the counters with the counts of the database and the changes made while they were counted
+     *
+     * @param total number of documents
+     * @param active number of active documents
+     * @param byField count of every value of the counted fields
+     */
+    public void reconciled(long total, long active, Map<String, Map<String, Long>> byField) {
+        Counts result = new Counts(fields);
+        result.total = total;
+        result.active = active;
+        result.byField.putAll(byField);
+        if (pending != null) {
+            result.merge(pending);
+        }
+        counts = result;
+        pending = null;
+        ready = true;
+    }
+
+    /**
+     * Cancels a reconciliation that failed, the counters keep the incremental values
+     */
+    public void reconcileFailed() {
+        pending = null;
+    }
+
+    private void add(JsonObject document, long amount) {
+        counts.add(document, amount);
+        if (pending != null) {
+            pending.add(document, amount);
+        }
+    }
+
+    private static String valueKey(Object value) {
+        return String.valueOf(value);
+    }
+
+    /**
+     * Values of the counters or changes of them
+     */
+    private static class Counts {
+
+        private long total;
+        private long active;
+        private final Map<String, Map<String, Long>> byField = new HashMap<>();
+
+        public Counts(List<String> fields) {
+            for (String field : fields) {
+                byField.put(field, new HashMap<>());
+            }
+        }
+
+        public void add(JsonObject document, long amount) {
+            total += amount;
+            if (document.getBoolean("active", false)) {
+                active += amount;
+            }
+            for (Map.Entry<String, Map<String, Long>> field : byField.entrySet()) {
+                field.getValue().merge(valueKey(document.getValue(field.getKey())), amount, Long::sum);
+            }
+        }
+
+        public void merge(Counts changes) {
+            total += changes.total;
+            active += changes.active;
+            for (Map.Entry<String, Map<String, Long>> field : changes.byField.entrySet()) {
+                Map<String, Long> byValue = byField.computeIfAbsent(field.getKey(), f -> new HashMap<>());
+                for (Map.Entry<String, Long> value : field.getValue().entrySet()) {
+                    byValue.merge(value.getKey(), value.getValue(), Long::sum);
+                }
+            }
+        }
+
+    }
+
+}
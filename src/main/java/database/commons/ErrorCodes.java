@@ -15,5 +15,6 @@ public enum ErrorCodes {
     BAD_ACTION,
     DB_ERROR,
     MISSING_VALUE,
-    NO_RESULT
+    NO_RESULT,
+    INVALID_VALUE
 }
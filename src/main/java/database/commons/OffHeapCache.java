@@ -0,0 +1,235 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package database.commons;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import utils.UtilsLog;
+
+/**
+ * Cache of documents encoded as json kept out of the heap, the bytes are stored in slots of direct buffers grouped in
+ * size classes of powers of two, every class takes pages of memory while the capacity allows it and then replaces its
+ * slots with the CLOCK algorithm: the slots read since the last pass of the hand have a second chance. The first page of
+ * every class is reserved in the capacity, the rest of the capacity goes to the classes that fill first. A class stops
+ * growing when the direct memory of the JVM is exhausted. Only the index of the ids is kept in the heap. The version
+ * changes with every invalidation so a document read before a write is not cached after it. Must be used only from the
+ * context of the verticle
+ *
+ * @author Ulises Beltrán Gómez - beltrangomezulises@gmail.com
+ */
+class OffHeapCache {
+
+    private static final int MIN_SLOT_SIZE = 128;
+    private static final int PAGE_SIZE = 1024 * 1024;
+
+    private final Map<String, Long> index = new HashMap<>();
+    private final SizeClass[] classes;
+    private final long capacity;
+    private final int maxEntrySize;
+    private volatile long allocated;
+    private long reserved;
+    private boolean memoryExhausted;
+    private long version;
+
+    /**
+     * @param capacity max number of bytes of the direct buffers
+     * @param maxEntrySize max size of a document to cache
+     * @throws IllegalArgumentException if the capacity is less than one page for every size class
+     */
+    public OffHeapCache(long capacity, int maxEntrySize) {
+        this.capacity = capacity;
+        this.maxEntrySize = maxEntrySize;
+        int count = 1;
+        while ((MIN_SLOT_SIZE << (count - 1)) < maxEntrySize) {
+            count++;
+        }
+        this.classes = new SizeClass[count];
+        for (int i = 0; i < count; i++) {
+            classes[i] = new SizeClass(MIN_SLOT_SIZE << i);
+            reserved += classes[i].pageBytes;
+        }
+        if (capacity < reserved) {
+            throw new IllegalArgumentException("The capacity of the cache must be at least " + reserved
+                    + " bytes, a page for every size class up to " + maxEntrySize + " bytes");
+        }
+    }
+
+    /**
+     * @return the actual version, to pass in {@link #put(Object, byte[], long)} of a document read from now
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return number of bytes of the direct buffers allocated
+     */
+    public long getAllocated() {
+        return allocated;
+    }
+
+    /**
+     * Gets the bytes of a document
+     *
+     * @param id the id of the document
+     * @return a copy of the bytes of the document, null if it is not cached
+     */
+    public byte[] get(Object id) {
+        Long slot = index.get(String.valueOf(id));
+        if (slot == null) {
+            return null;
+        }
+        return classes[(int) (slot >>> 32)].read(slot.intValue());
+    }
+
+    /**
+     * Caches the bytes of a document if nothing was invalidated since the version was taken
+     *
+     * @param id the id of the document
+     * @param bytes the document encoded
+     * @param readVersion the version taken before reading the document
+     */
+    public void put(Object id, byte[] bytes, long readVersion) {
+        if (readVersion != version || bytes.length > maxEntrySize) {
+            return;
+        }
+        String key = String.valueOf(id);
+        this.remove(key);
+        int sizeClass = 0;
+        while (classes[sizeClass].slotSize < bytes.length) {
+            sizeClass++;
+        }
+        int slot = classes[sizeClass].write(key, bytes);
+        if (slot >= 0) {
+            index.put(key, ((long) sizeClass << 32) | slot);
+        }
+    }
+
+    /**
+     * Removes a document that was written and changes the version
+     *
+     * @param id the id of the document
+     */
+    public void invalidate(Object id) {
+        version++;
+        this.remove(String.valueOf(id));
+    }
+
+    private void remove(String key) {
+        Long slot = index.remove(key);
+        if (slot != null) {
+            classes[(int) (slot >>> 32)].free(slot.intValue());
+        }
+    }
+
+    /**
+     * Slots of the same size in pages of direct buffers
+     */
+    private class SizeClass {
+
+        private final int slotSize;
+        private final int slotsPerPage;
+        private final long pageBytes;
+        private final List<ByteBuffer> pages = new ArrayList<>();
+        private String[] keys = new String[0];
+        private int[] lengths = new int[0];
+        private boolean[] referenced = new boolean[0];
+        private int[] freeSlots = new int[0];
+        private int freeCount;
+        private int hand;
+
+        public SizeClass(int slotSize) {
+            this.slotSize = slotSize;
+            this.slotsPerPage = Math.max(1, PAGE_SIZE / slotSize);
+            this.pageBytes = (long) slotsPerPage * slotSize;
+        }
+
+        public byte[] read(int slot) {
+            referenced[slot] = true;
+            byte[] bytes = new byte[lengths[slot]];
+            ByteBuffer page = pages.get(slot / slotsPerPage).duplicate();
+            page.position((slot % slotsPerPage) * slotSize);
+            page.get(bytes);
+            return bytes;
+        }
+
+        /**
+         * Writes the bytes in a free slot, a new page or the slot replaced by the hand
+         *
+         * @return the slot written, -1 if the class has no memory
+         */
+        public int write(String key, byte[] bytes) {
+            int slot = this.allocate();
+            if (slot < 0) {
+                return -1;
+            }
+            ByteBuffer page = pages.get(slot / slotsPerPage).duplicate();
+            page.position((slot % slotsPerPage) * slotSize);
+            page.put(bytes);
+            keys[slot] = key;
+            lengths[slot] = bytes.length;
+            referenced[slot] = false;
+            return slot;
+        }
+
+        public void free(int slot) {
+            keys[slot] = null;
+            freeSlots[freeCount++] = slot;
+        }
+
+        private int allocate() {
+            if (freeCount > 0) {
+                return freeSlots[--freeCount];
+            }
+            boolean first = pages.isEmpty();
+            ByteBuffer page = null;
+            if (!memoryExhausted && (first || allocated + reserved + pageBytes <= capacity)) {
+                try {
+                    page = ByteBuffer.allocateDirect((int) pageBytes);
+                } catch (OutOfMemoryError e) { //beyond -XX:MaxDirectMemorySize
+                    memoryExhausted = true;
+                    UtilsLog.error("The direct memory is exhausted, the cache stops growing at " + allocated + " bytes", e);
+                }
+            }
+            if (page != null) {
+                pages.add(page);
+                allocated += pageBytes;
+                if (first) {
+                    reserved -= pageBytes;
+                }
+                int slots = keys.length;
+                keys = Arrays.copyOf(keys, slots + slotsPerPage);
+                lengths = Arrays.copyOf(lengths, slots + slotsPerPage);
+                referenced = Arrays.copyOf(referenced, slots + slotsPerPage);
+                freeSlots = Arrays.copyOf(freeSlots, slots + slotsPerPage);
+                for (int slot = slots + slotsPerPage - 1; slot > slots; slot--) {
+                    freeSlots[freeCount++] = slot;
+                }
+                return slots;
+            }
+            if (keys.length == 0) {
+                return -1;
+            }
+            while (true) {
+                int slot = hand;
+                hand = (hand + 1) % keys.length;
+                if (referenced[slot]) {
+                    referenced[slot] = false;
+                } else {
+                    index.remove(keys[slot]);
+                    keys[slot] = null;
+                    return slot;
+                }
+            }
+        }
+
+    }
+
+}
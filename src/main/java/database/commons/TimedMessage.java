@@ -0,0 +1,95 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package database.commons;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import static service.commons.Constants.DB_RECEIVED_AT;
+import static service.commons.Constants.DB_REPLIED_AT;
+
+/**
+ * Message of the event bus that adds to the headers of the reply the moment in which the message was received and
+ * the moment in which was replied, measured with {@link System#nanoTime()}
+ *
+ * @author Ulises Beltrán Gómez - beltrangomezulises@gmail.com
+ * @param <T> the type of the body of the message
+ */
+class TimedMessage<T> implements Message<T> {
+
+    private final Message<T> message;
+    private final long receivedAt;
+
+    public TimedMessage(Message<T> message) {
+        this.message = message;
+        this.receivedAt = System.nanoTime();
+    }
+
+    @Override
+    public String address() {
+        return message.address();
+    }
+
+    @Override
+    public MultiMap headers() {
+        return message.headers();
+    }
+
+    @Override
+    public T body() {
+        return message.body();
+    }
+
+    @Override
+    public String replyAddress() {
+        return message.replyAddress();
+    }
+
+    @Override
+    public boolean isSend() {
+        return message.isSend();
+    }
+
+    @Override
+    public void reply(Object body) {
+        message.reply(body, this.timed(new DeliveryOptions()));
+    }
+
+    @Override
+    public <R> void reply(Object body, Handler<AsyncResult<Message<R>>> replyHandler) {
+        message.reply(body, this.timed(new DeliveryOptions()), replyHandler);
+    }
+
+    @Override
+    public void reply(Object body, DeliveryOptions options) {
+        message.reply(body, this.timed(options));
+    }
+
+    @Override
+    public <R> void reply(Object body, DeliveryOptions options, Handler<AsyncResult<Message<R>>> replyHandler) {
+        message.reply(body, this.timed(options), replyHandler);
+    }
+
+    @Override
+    public void fail(int failureCode, String errorMessage) {
+        message.fail(failureCode, errorMessage);
+    }
+
+    /**
+     * Adds the times of reception and reply to the options of the reply
+     *
+     * @param options the options of the reply
+     * @return the same options with the headers of the times
+     */
+    private DeliveryOptions timed(DeliveryOptions options) {
+        return options
+                .addHeader(DB_RECEIVED_AT, String.valueOf(receivedAt))
+                .addHeader(DB_REPLIED_AT, String.valueOf(System.nanoTime()));
+    }
+
+}
@@ -0,0 +1,296 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package database.commons;
+
+import io.vertx.core.json.JsonObject;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Journal of writes in local disk, the writes are appended in order to segment files of fixed size mapped in memory
+ * and read back from a checkpoint to replay them in the database. Every record has its length, a CRC32 and the time
+ * it was appended, a record that does not match its CRC32 is the end of the written data of its segment. The segments
+ * are deleted once the checkpoint passes them. Must be used only from the context of the verticle
+ *
+ * @author Ulises Beltrán Gómez - beltrangomezulises@gmail.com
+ */
+class WriteAheadJournal {
+
+    private static final String SEGMENT_EXTENSION = ".wal";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int HEADER = 16; //length, crc and time
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    private final MappedByteBuffer checkpoint;
+
+    private long writeSegment;
+    private int writePosition;
+    private long readSegment;
+    private int readPosition;
+    private final List<long[]> peekedEnds = new ArrayList<>(); //segment, position and bytes from the checkpoint
+
+    private volatile long pendingRecords;
+    private volatile long pendingBytes;
+    private volatile long oldestPendingTime;
+
+    /**
+     * Opens the journal in a directory, the segments and the checkpoint of a previous run are recovered
+     *
+     * @param directory the directory of the files of the journal
+     * @param segmentSize size in bytes of every segment
+     * @param maxSegments max number of segments, the journal rejects the writes when all are full
+     * @throws IOException if the files can not be created or read
+     */
+    public WriteAheadJournal(Path directory, int segmentSize, int maxSegments) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_EXTENSION)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length())), null);
+            }
+        }
+        this.checkpoint = map(directory.resolve(CHECKPOINT_FILE), 12);
+        readSegment = checkpoint.getLong(0);
+        readPosition = checkpoint.getInt(8);
+        if (segments.isEmpty()) {
+            readPosition = 0;
+        } else if (readSegment < segments.firstKey()) {
+            readSegment = segments.firstKey();
+            readPosition = 0;
+        }
+        for (Iterator<Long> it = segments.keySet().iterator(); it.hasNext();) {
+            long index = it.next();
+            if (index < readSegment) {
+                Files.deleteIfExists(this.segmentPath(index));
+                it.remove();
+            }
+        }
+        for (Long index : new ArrayList<>(segments.keySet())) {
+            segments.put(index, map(this.segmentPath(index), segmentSize));
+        }
+        if (segments.isEmpty()) {
+            segments.put(readSegment, map(this.segmentPath(readSegment), segmentSize));
+        }
+        this.recover();
+    }
+
+    /**
+     * Counts the records pending of replay and finds the end of the written data of the last segment
+     */
+    private void recover() {
+        long segment = readSegment;
+        int position = readPosition;
+        long records = 0;
+        long bytes = 0;
+        while (true) {
+            int length = this.recordLength(segments.get(segment), position);
+            if (length < 0) {
+                Long next = segments.higherKey(segment);
+                if (next == null) {
+                    break;
+                }
+                segment = next;
+                position = 0;
+                continue;
+            }
+            if (records == 0) {
+                oldestPendingTime = segments.get(segment).getLong(position + 8);
+            }
+            records++;
+            bytes += HEADER + length;
+            position += HEADER + length;
+        }
+        writeSegment = segment;
+        writePosition = position;
+        pendingRecords = records;
+        pendingBytes = bytes;
+        this.saveCheckpoint();
+    }
+
+    /**
+     * Appends a write at the end of the journal
+     *
+     * @param operation the write to append
+     * @return true if the write was appended, false if the journal is full or the write is bigger than a segment
+     * @throws IOException if a new segment can not be created
+     */
+    public boolean append(JsonObject operation) throws IOException {
+        byte[] payload = operation.encode().getBytes(StandardCharsets.UTF_8);
+        int size = HEADER + payload.length;
+        if (size > segmentSize) {
+            return false;
+        }
+        if (writePosition + size > segmentSize) {
+            if (segments.size() >= maxSegments) {
+                return false;
+            }
+            writeSegment++;
+            writePosition = 0;
+            segments.put(writeSegment, map(this.segmentPath(writeSegment), segmentSize));
+        }
+        long now = System.currentTimeMillis();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        MappedByteBuffer buffer = segments.get(writeSegment);
+        buffer.putLong(writePosition + 8, now);
+        ByteBuffer data = buffer.duplicate();
+        data.position(writePosition + HEADER);
+        data.put(payload);
+        buffer.putInt(writePosition + 4, (int) crc.getValue());
+        buffer.putInt(writePosition, payload.length);
+        writePosition += size;
+        if (pendingRecords == 0) {
+            oldestPendingTime = now;
+        }
+        pendingRecords++;
+        pendingBytes += size;
+        return true;
+    }
+
+    /**
+     * @return true if there are records not replayed yet
+     */
+    public boolean hasPending() {
+        return pendingRecords > 0;
+    }
+
+    public long getPendingRecords() {
+        return pendingRecords;
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * @return the milliseconds since the oldest record pending of replay was appended, 0 if there are none
+     */
+    public long getReplayLag() {
+        return pendingRecords == 0 ? 0 : System.currentTimeMillis() - oldestPendingTime;
+    }
+
+    /**
+     * Reads the next records from the checkpoint without moving it
+     *
+     * @param max max number of records to read
+     * @return the writes of the records
+     */
+    public List<JsonObject> peek(int max) {
+        List<JsonObject> records = new ArrayList<>();
+        long peekSegment = readSegment;
+        int peekPosition = readPosition;
+        long peekedBytes = 0;
+        peekedEnds.clear();
+        while (records.size() < max) {
+            MappedByteBuffer buffer = segments.get(peekSegment);
+            int length = this.recordLength(buffer, peekPosition);
+            if (length < 0) {
+                Long next = segments.higherKey(peekSegment);
+                if (next == null) {
+                    break;
+                }
+                peekSegment = next;
+                peekPosition = 0;
+                continue;
+            }
+            byte[] payload = new byte[length];
+            ByteBuffer data = buffer.duplicate();
+            data.position(peekPosition + HEADER);
+            data.get(payload);
+            records.add(new JsonObject(new String(payload, StandardCharsets.UTF_8)));
+            peekPosition += HEADER + length;
+            peekedBytes += HEADER + length;
+            peekedEnds.add(new long[]{peekSegment, peekPosition, peekedBytes});
+        }
+        return records;
+    }
+
+    /**
+     * Moves the checkpoint after the first records of the last {@link #peek(int)} and deletes the segments replayed
+     *
+     * @param count the number of records replayed, from the start of the records peeked
+     * @throws IOException if a segment can not be deleted
+     */
+    public void commit(int count) throws IOException {
+        if (count <= 0) {
+            return;
+        }
+        long[] end = peekedEnds.get(count - 1);
+        readSegment = end[0];
+        readPosition = (int) end[1];
+        pendingRecords -= count;
+        pendingBytes -= end[2];
+        peekedEnds.clear();
+        Long next = segments.higherKey(readSegment);
+        if (next != null && this.recordLength(segments.get(readSegment), readPosition) < 0) {
+            //the segment is replayed to its end and no longer written, is released for new writes
+            readSegment = next;
+            readPosition = 0;
+        }
+        while (segments.firstKey() < readSegment) {
+            Files.deleteIfExists(this.segmentPath(segments.pollFirstEntry().getKey()));
+        }
+        if (pendingRecords > 0) {
+            oldestPendingTime = segments.get(readSegment).getLong(readPosition + 8);
+        }
+        this.saveCheckpoint();
+    }
+
+    /**
+     * Length of the record in a position of a segment
+     *
+     * @return the length of the payload of the record, -1 if there is no valid record in the position
+     */
+    private int recordLength(MappedByteBuffer buffer, int position) {
+        if (position + HEADER > segmentSize) {
+            return -1;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || position + HEADER + length > segmentSize) {
+            return -1;
+        }
+        ByteBuffer data = buffer.duplicate();
+        data.limit(position + HEADER + length);
+        data.position(position + HEADER);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue() == buffer.getInt(position + 4) ? length : -1;
+    }
+
+    private void saveCheckpoint() {
+        checkpoint.putLong(0, readSegment);
+        checkpoint.putInt(8, readPosition);
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(String.format("%020d%s", index, SEGMENT_EXTENSION));
+    }
+
+    private static MappedByteBuffer map(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+}
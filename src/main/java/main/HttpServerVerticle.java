@@ -0,0 +1,31 @@
+package main;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.http.HttpServerOptions;
+import service.commons.Constants;
+import utils.UtilsRouter;
+
+/**
+ * Verticle that binds the http server with the main router, is deployed with many instances in the same port so vertx
+ * spreads the connections between the event loops of the instances
+ *
+ * @author kriblet
+ */
+public class HttpServerVerticle extends AbstractVerticle {
+
+    @Override
+    public void start(Future<Void> startFuture) throws Exception {
+        vertx.createHttpServer(new HttpServerOptions()
+                .setCompressionSupported(config().getBoolean(Constants.CONFIG_HTTP_COMPRESSION, false)))
+                .requestHandler(UtilsRouter.getInstance(vertx)::accept)
+                .listen(config().getInteger(Constants.CONFIG_HTTP_SERVER_PORT), listening -> {
+                    if (listening.succeeded()) {
+                        startFuture.complete();
+                    } else {
+                        startFuture.fail(listening.cause());
+                    }
+                });
+    }
+
+}
@@ -2,6 +2,7 @@ package main;
 
 import database.commons.DBVerticle;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
@@ -10,8 +11,15 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import service.commons.Constants;
 import service.commons.ServiceVerticle;
+import utils.UtilsBatch;
+import utils.UtilsHealth;
+import utils.UtilsLog;
+import utils.UtilsMetrics;
+import utils.UtilsRateLimit;
 import utils.UtilsRouter;
 
 /**
@@ -25,6 +33,9 @@ public class MainVerticle extends AbstractVerticle {
 
     private String configFilePath;
 
+    private final List<DBVerticle> dbVerticles = new ArrayList<>();
+    private final List<ServiceVerticle> serviceVerticles = new ArrayList<>();
+
     //constructors
     public MainVerticle() {
     }
@@ -51,18 +62,77 @@ public class MainVerticle extends AbstractVerticle {
         UtilsRouter.getInstance(vertx);
 
         JsonObject config = this.loadConfigFromFile();
+        UtilsLog.configure(config);
+        UtilsHealth.init(vertx, config);
+        UtilsMetrics.init(vertx, config);
+        UtilsRateLimit.init(vertx, config);
+        UtilsBatch.init(vertx, config);
+
+        //registerVerticle(new ClienteDBV(), new ClienteSV());
+        this.deployVerticles(config, startFuture);
+    }
 
-        //initializeVerticle(new ClienteDBV(), new ClienteSV(), config);
+    @Override
+    public void stop() throws Exception {
+        UtilsRouter.setReady(false);
     }
 
-    public void initializeVerticle(DBVerticle dbVerticle, ServiceVerticle verticleService, JsonObject config) {
-        Future<String> dbVerticleDeployment = Future.future();
-        vertx.deployVerticle(dbVerticle, new DeploymentOptions().setConfig(config), dbVerticleDeployment);
+    /**
+     * Registers the pair of verticles of an entity to deploy when this verticle starts
+     *
+     * @param dbVerticle the verticle with the access to the database of the entity
+     * @param verticleService the verticle with the endpoints of the entity
+     */
+    public void registerVerticle(DBVerticle dbVerticle, ServiceVerticle verticleService) {
+        this.dbVerticles.add(dbVerticle);
+        this.serviceVerticles.add(verticleService);
+    }
 
-        dbVerticleDeployment.compose(id -> {
-            Future<String> httpVerticleDeployment = Future.future();
-            vertx.deployVerticle(verticleService, new DeploymentOptions().setConfig(config), httpVerticleDeployment.completer());
-            return httpVerticleDeployment;
+    /**
+     * Deploys all the registered verticles in parallel, when all of them are deployed binds the http server with the
+     * main router in the instances of the property "httpServerInstances" of the configuration, by default one per
+     * processor, and sets the application ready to receive requests. The property "httpCompression" of the
+     * configuration enables gzip in the responses of every route when the client accepts it, is false by default
+     *
+     * @param config the configuration for the verticles
+     * @param startFuture future to complete when the application is ready
+     */
+    private void deployVerticles(JsonObject config, Future<Void> startFuture) {
+        Integer portNumber = config.getInteger(Constants.CONFIG_HTTP_SERVER_PORT);
+        if (portNumber == null) {
+            UtilsLog.error("Could not start the HTTP server, no port speficied in configuration", null);
+            startFuture.fail(new Exception("No port speficied in configuration"));
+            return;
+        }
+        DeploymentOptions options = new DeploymentOptions().setConfig(config);
+        @SuppressWarnings("rawtypes") //CompositeFuture.all only takes a list of raw futures
+        List<Future> deployments = new ArrayList<>();
+        for (DBVerticle dbVerticle : this.dbVerticles) {
+            Future<String> deployment = Future.future();
+            vertx.deployVerticle(dbVerticle, options, deployment.completer());
+            deployments.add(deployment);
+        }
+        for (ServiceVerticle serviceVerticle : this.serviceVerticles) {
+            Future<String> deployment = Future.future();
+            vertx.deployVerticle(serviceVerticle, options, deployment.completer());
+            deployments.add(deployment);
+        }
+        CompositeFuture.all(deployments).compose(deployed -> {
+            Future<String> listening = Future.future();
+            vertx.deployVerticle(HttpServerVerticle.class.getName(), new DeploymentOptions()
+                    .setConfig(config)
+                    .setInstances(config.getInteger(Constants.CONFIG_HTTP_SERVER_INSTANCES, Runtime.getRuntime().availableProcessors())),
+                    listening.completer());
+            return listening;
+        }).setHandler(ar -> {
+            if (ar.succeeded()) {
+                UtilsRouter.setReady(true);
+                UtilsLog.info("Application running in port " + portNumber + " with " + this.serviceVerticles.size() + " services");
+                startFuture.complete();
+            } else {
+                UtilsLog.error("Could not start the application", ar.cause());
+                startFuture.fail(ar.cause());
+            }
         });
     }
 
@@ -96,10 +166,10 @@ public class MainVerticle extends AbstractVerticle {
             while ((line = br.readLine()) != null) {
                 sb.append(line);
             }
-            System.out.println("Running app with file: " + filePath + ", and the configs are:");
+            UtilsLog.info("Running app with file: " + filePath + ", and the configs are:");
             result = new JsonObject(sb.toString());
         } catch (FileNotFoundException e) {
-            System.out.println("The file: " + filePath + ", was not found, running with default configs to develop enviroment:");
+            UtilsLog.info("The file: " + filePath + ", was not found, running with default configs to develop enviroment:");
             //db configs
             result = new JsonObject()
                     .put("host", "192.168.10.10")
@@ -119,7 +189,7 @@ public class MainVerticle extends AbstractVerticle {
             //web configs
             result.put(Constants.CONFIG_HTTP_SERVER_PORT, 8480);
         }
-        System.out.println(result);
+        UtilsLog.info(result.encode());
         return result;
     }
 }
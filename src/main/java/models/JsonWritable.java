@@ -0,0 +1,27 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package models;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+
+/**
+ * Model that writes itself in a json generator, implement it in the models of the responses to encode them without
+ * reflection
+ *
+ * @author kriblet
+ */
+public interface JsonWritable {
+
+    /**
+     * Writes this model as a json object
+     *
+     * @param generator the generator to write in
+     * @throws IOException if the generator can not write
+     */
+    void writeJson(JsonGenerator generator) throws IOException;
+
+}
@@ -6,6 +6,9 @@
 package models;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+import utils.UtilsJson;
 
 /**
  * Model for generic responses, this encapsulates the payload of the request
@@ -13,7 +16,7 @@ import com.fasterxml.jackson.annotation.JsonInclude;
  * @author kriblet
  */
 @JsonInclude(JsonInclude.Include.NON_NULL)
-public class ModelReponse {
+public class ModelReponse implements JsonWritable {
 
     /**
      * status of the procces of the request
@@ -100,6 +103,25 @@ public class ModelReponse {
         this.data = data;
     }
 
+    @Override
+    public void writeJson(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        if (status != null) {
+            generator.writeStringField("status", status.name());
+        }
+        if (message != null) {
+            generator.writeStringField("message", message);
+        }
+        if (devMessage != null) {
+            generator.writeStringField("devMessage", devMessage);
+        }
+        if (data != null) {
+            generator.writeFieldName("data");
+            UtilsJson.write(generator, data);
+        }
+        generator.writeEndObject();
+    }
+
     public static enum Status {
         OK, WARNING, ERROR, INVALID_TOKEN
     }
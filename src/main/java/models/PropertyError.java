@@ -5,12 +5,15 @@
  */
 package models;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.IOException;
+
 /**
  * Model to construct properties error messages
  *
  * @author kriblet
  */
-public class PropertyError {
+public class PropertyError implements JsonWritable {
 
     private String name;
     private String error;
@@ -39,4 +42,12 @@ public class PropertyError {
         this.error = error;
     }
 
+    @Override
+    public void writeJson(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("name", name);
+        generator.writeStringField("error", error);
+        generator.writeEndObject();
+    }
+
 }
@@ -13,7 +13,77 @@ package service.commons;
 public class Constants {
 
     public static final String CONFIG_HTTP_SERVER_PORT = "httpServerPort";
+    public static final String CONFIG_FIND_BY_ID_MAX_BATCH = "findByIdMaxBatch";
+    public static final String CONFIG_EXPORT_CHUNK_SIZE = "exportChunkSize";
+    public static final String CONFIG_EXPORT_ACK_TIMEOUT = "exportAckTimeoutMS";
+    public static final String CONFIG_HTTP_COMPRESSION = "httpCompression";
+    public static final String CONFIG_HTTP_SERVER_INSTANCES = "httpServerInstances";
+    public static final String CONFIG_IMPORT_CHUNK_SIZE = "importChunkSize";
+    public static final String CONFIG_IMPORT_MAX_ERRORS = "importMaxErrors";
+    public static final String CONFIG_HEALTH_CHECK_INTERVAL = "healthCheckIntervalMS";
+    public static final String CONFIG_HEALTH_MAX_MONGO_PING = "healthMaxMongoPingMS";
+    public static final String CONFIG_HEALTH_MAX_EVENT_LOOP_LAG = "healthMaxEventLoopLagMS";
+    public static final String CONFIG_HEALTH_MAX_IN_FLIGHT = "healthMaxInFlight";
+    public static final String CONFIG_POOLS = "pools";
+    public static final String CONFIG_READ_PREFERENCE = "readPreference";
+    public static final String CONFIG_WRITE_CONCERNS = "writeConcerns";
+    public static final String CONFIG_LOG_FILE = "logFile";
+    public static final String CONFIG_ACCESS_LOG_FILE = "accessLogFile";
+    public static final String CONFIG_LOG_BUFFER_SIZE = "logBufferSize";
+    public static final String CONFIG_LOG_BATCH_SIZE = "logBatchSize";
+    public static final String CONFIG_RATE_LIMIT_READ_PER_SECOND = "rateLimitReadsPerSecond";
+    public static final String CONFIG_RATE_LIMIT_READ_BURST = "rateLimitReadBurst";
+    public static final String CONFIG_RATE_LIMIT_WRITE_PER_SECOND = "rateLimitWritesPerSecond";
+    public static final String CONFIG_RATE_LIMIT_WRITE_BURST = "rateLimitWriteBurst";
+    public static final String CONFIG_RATE_LIMIT_EVICT_INTERVAL = "rateLimitEvictIntervalMS";
+    public static final String CONFIG_MAX_BODY_BYTES = "maxBodyBytes";
+    public static final String CONFIG_PAGE_LIMITS = "pageLimits";
+    public static final String CONFIG_COUNTERS = "counters";
+    public static final String CONFIG_INDEXES = "indexes";
+    public static final String CONFIG_UNINDEXED_SORT_MAX_RESULTS = "unindexedSortMaxResults";
+    public static final String CONFIG_UNIQUE_FILTER_EXPECTED_VALUES = "uniqueFilterExpectedValues";
+    public static final String CONFIG_AGGREGATE_CACHE_SIZE = "aggregateCacheSize";
+    public static final String CONFIG_COUNTERS_RECONCILE_INTERVAL = "countersReconcileIntervalMS";
+    public static final String CONFIG_DEFAULT_PAGE_SIZE = "defaultPageSize";
+    public static final String CONFIG_MAX_PAGE_SIZE = "maxPageSize";
+    public static final String CONFIG_MAX_RESPONSE_BYTES = "maxResponseBytes";
+    public static final String CONFIG_BATCH_MAX_ITEMS = "batchMaxItems";
+    public static final String CONFIG_METRICS_PUBLIC = "metricsPublic";
+    public static final String CONFIG_OFF_HEAP_CACHE = "offHeapCache";
+    public static final String CONFIG_OFF_HEAP_CACHE_MAX_ENTRY_BYTES = "offHeapCacheMaxEntryBytes";
+    public static final String CONFIG_JOURNAL_DIRECTORY = "journalDirectory";
+    public static final String CONFIG_JOURNAL_SEGMENT_BYTES = "journalSegmentBytes";
+    public static final String CONFIG_JOURNAL_MAX_SEGMENTS = "journalMaxSegments";
+    public static final String CONFIG_JOURNAL_REPLAY_INTERVAL = "journalReplayIntervalMS";
+    public static final String CONFIG_JOURNAL_REPLAY_BATCH_SIZE = "journalReplayBatchSize";
+    public static final String CONFIG_IDEMPOTENCY_MAX_KEYS = "idempotencyMaxKeys";
+    public static final String CONFIG_IDEMPOTENCY_TTL = "idempotencyTtlMS";
     public static final String ACTION = "action";
+    public static final String REQUEST_ID = "request_id";
+    public static final String REQUEST_ID_HEADER = "X-Request-Id";
+    public static final String JOURNALED_HEADER = "X-Journaled";
+    public static final String USER_ID = "user_id";
+    public static final String REQUEST_BODY = "request_body";
+    public static final String RESPONSE_BODY = "response_body";
+    public static final String RESPONSE_STATUS = "response_status";
+    public static final String RESPONSE_HANDLER = "response_handler";
+    public static final String OUTCOME_UNKNOWN = "outcome_unknown";
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    public static final String SENT_AT = "sent_at";
+    public static final String DB_RECEIVED_AT = "db_received_at";
+    public static final String DB_REPLIED_AT = "db_replied_at";
+    public static final String CBOR_CONTENT_TYPE = "application/cbor";
+    public static final String RAW_JSON = "raw_json";
+    public static final String RETURN_NEW = "return_new";
+    public static final String JOURNALED = "journaled";
+    public static final String SELECT = "select";
+    public static final String TRUNCATED = "truncated";
+    public static final String CONTINUATION = "continuation";
+    public static final String TRUNCATED_HEADER = "X-Truncated";
+    public static final String CONTINUATION_HEADER = "X-Continuation-Token";
+    public static final String STREAM_STATUS = "stream_status";
+    public static final String STREAM_END = "end";
+    public static final String STREAM_ERROR = "error";
     public static final String INVALID_DATA = "Invalid data";
     public static final String INVALID_DATA_MESSAGE = "Some properties in the model are invalid, see details in data";
     public static final String UNEXPECTED_ERROR = "An unexpected error occurred, check with the systems provider";
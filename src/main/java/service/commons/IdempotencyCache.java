@@ -0,0 +1,242 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package service.commons;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import static service.commons.Constants.CBOR_CONTENT_TYPE;
+import utils.UtilsJson;
+import static utils.UtilsResponse.acceptsCbor;
+
+/**
+ * Responses of the requests with an idempotency key, the keys expire after a time to live and the oldest are removed
+ * when the cache is full. Must be used only from the context of the verticle
+ *
+ * @author Ulises Beltrán Gómez - beltrangomezulises@gmail.com
+ */
+class IdempotencyCache {
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private final int maxKeys;
+    private final long ttlMillis;
+
+    /**
+     * @param maxKeys max number of keys kept
+     * @param ttlMillis time that a key is kept since its first request
+     */
+    public IdempotencyCache(int maxKeys, long ttlMillis) {
+        this.maxKeys = maxKeys;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Gets the entry of a key
+     *
+     * @param key the idempotency key
+     * @return the entry of the key, null if it does not exist or expired
+     */
+    public Entry get(String key) {
+        this.evictExpired();
+        return entries.get(key);
+    }
+
+    /**
+     * Creates the entry of a key whose request is starting
+     *
+     * @param key the idempotency key
+     * @param fingerprint the fingerprint of the body of the request, null if the body is not available
+     * @return the new entry, pending of the response
+     */
+    public Entry start(String key, byte[] fingerprint) {
+        Entry entry = new Entry(System.currentTimeMillis() + ttlMillis, fingerprint);
+        entries.put(key, entry);
+        if (entries.size() > maxKeys) {
+            Iterator<Entry> oldest = entries.values().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+        return entry;
+    }
+
+    /**
+     * Removes the entry of a key, so the next request with the key is executed again
+     *
+     * @param key the idempotency key
+     * @param entry the entry to remove, is not removed if the key has other entry
+     */
+    public void remove(String key, Entry entry) {
+        entries.remove(key, entry);
+    }
+
+    /**
+     * Calculates the fingerprint of the body of a request to compare the requests with the same key
+     *
+     * @param body the body of the request, can be null
+     * @return the SHA-256 of the body, null if there is no body
+     */
+    public static byte[] fingerprint(Buffer body) {
+        if (body == null) {
+            return null;
+        }
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(body.getBytes());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); //every java platform has SHA-256
+        }
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            if (entry.expiresAt > now) {
+                break; //the entries are in order of creation and all have the same time to live
+            }
+            iterator.remove();
+        }
+    }
+
+    /**
+     * State of the first request of a key
+     */
+    enum State {
+        /**
+         * the first request is running
+         */
+        PENDING,
+        /**
+         * the response is kept to replay it
+         */
+        COMPLETED,
+        /**
+         * the first request ended without knowing if its write was applied, the key can not be executed again
+         */
+        IN_DOUBT,
+        /**
+         * the first request failed before writing, the key was removed
+         */
+        ABANDONED
+    }
+
+    /**
+     * Response of a key, pending while the first request is running
+     */
+    static class Entry {
+
+        private final long expiresAt;
+        private final byte[] fingerprint;
+        private final List<RoutingContext> waiting = new ArrayList<>();
+        private State state = State.PENDING;
+        private int statusCode;
+        private String contentType;
+        private Buffer body;
+
+        private Entry(long expiresAt, byte[] fingerprint) {
+            this.expiresAt = expiresAt;
+            this.fingerprint = fingerprint;
+        }
+
+        /**
+         * Indicates if a request with the same key has the same body of the first request
+         *
+         * @param other the fingerprint of the body of the request
+         * @return false if both fingerprints are known and different
+         */
+        public boolean matches(byte[] other) {
+            return fingerprint == null || other == null || MessageDigest.isEqual(fingerprint, other);
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * Adds a request with the same key to answer when the response is completed
+         *
+         * @param context the routing context of the request
+         */
+        public void await(RoutingContext context) {
+            waiting.add(context);
+        }
+
+        /**
+         * Completes the response and gets the requests that were waiting it
+         *
+         * @param statusCode the status code of the response
+         * @param contentType the content type of the response
+         * @param body the body of the response
+         * @return the requests waiting the response
+         */
+        public List<RoutingContext> complete(int statusCode, String contentType, Buffer body) {
+            this.state = State.COMPLETED;
+            this.statusCode = statusCode;
+            this.contentType = contentType;
+            this.body = body;
+            return this.drainWaiting();
+        }
+
+        /**
+         * Marks the outcome of the first request as unknown and gets the requests that were waiting it
+         *
+         * @return the requests waiting the response
+         */
+        public List<RoutingContext> doubt() {
+            this.state = State.IN_DOUBT;
+            return this.drainWaiting();
+        }
+
+        /**
+         * Marks the first request as failed before writing and gets the requests that were waiting it
+         *
+         * @return the requests waiting the response
+         */
+        public List<RoutingContext> abandon() {
+            this.state = State.ABANDONED;
+            return this.drainWaiting();
+        }
+
+        private List<RoutingContext> drainWaiting() {
+            List<RoutingContext> drained = new ArrayList<>(waiting);
+            waiting.clear();
+            return drained;
+        }
+
+        /**
+         * Writes the response completed in other request, the body is converted between json and CBOR when the
+         * request negotiates a different format than the first one
+         *
+         * @param context the routing context of the request
+         */
+        public void replay(RoutingContext context) {
+            if (context.response().closed()) {
+                return;
+            }
+            context.response().setStatusCode(statusCode);
+            context.response().putHeader("Idempotent-Replayed", "true");
+            boolean cbor = CBOR_CONTENT_TYPE.equals(contentType);
+            Buffer replayed = body;
+            if (acceptsCbor(context) != cbor) {
+                replayed = cbor ? UtilsJson.encode(UtilsJson.decodeCbor(body)) : UtilsJson.encode(new JsonObject(body), UtilsJson.CBOR_FACTORY);
+                cbor = !cbor;
+            }
+            context.response().putHeader("Vary", HttpHeaders.ACCEPT);
+            context.response().putHeader(HttpHeaders.CONTENT_TYPE, cbor ? CBOR_CONTENT_TYPE : "application/json");
+            context.response().end(replayed);
+        }
+
+    }
+
+}
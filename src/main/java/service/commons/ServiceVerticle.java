@@ -5,23 +5,52 @@
  */
 package service.commons;
 
+import database.commons.Action;
 import static database.commons.Action.*;
 import database.commons.ErrorCodes;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.DeliveryOptions;
-import io.vertx.core.http.HttpServer;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.parsetools.RecordParser;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import models.ModelReponse;
 import models.PropertyError;
 import static service.commons.Constants.*;
+import utils.UtilsBatch;
+import utils.UtilsHealth;
 import utils.UtilsJWT;
+import utils.UtilsJson;
+import utils.UtilsLog;
+import utils.UtilsMetrics;
+import utils.UtilsObjectId;
+import utils.UtilsRateLimit;
 import static utils.UtilsResponse.*;
 import utils.UtilsRouter;
+import utils.UtilsTiming;
 import utils.UtilsValidation;
 
 /**
@@ -31,11 +60,22 @@ import utils.UtilsValidation;
  */
 public abstract class ServiceVerticle extends AbstractVerticle {
 
+    private static final Map<Action, String[]> READ_PARAMS = new EnumMap<>(Action.class);
+
+    static {
+        READ_PARAMS.put(FIND_BY_ID, new String[]{"id"});
+        READ_PARAMS.put(FIND_ALL, new String[]{"select", "query", "from", "to", "ids", "sort", "continue"});
+        READ_PARAMS.put(COUNT, new String[]{"active", "by"});
+        READ_PARAMS.put(AGGREGATE, new String[]{"query", "group", "sum", "avg", "min", "max", "facet"});
+    }
+
     /**
      * The router for this verticle service instance
      */
     protected final Router router = Router.router(vertx);
 
+    private IdempotencyCache idempotencyCache;
+
     /**
      * Need to specifie the address of the verticles in the event bus with the
      * access of the db that contains the table
@@ -52,34 +92,377 @@ public abstract class ServiceVerticle extends AbstractVerticle {
      */
     protected abstract String getEndpointAddress();
 
+    /**
+     * Registers the routes of this verticle in the main router, the http server
+     * is bound by the main verticle once every verticle is deployed
+     *
+     * @param startFuture future to start with this deployment
+     * @throws Exception
+     */
     @Override
     public void start(Future<Void> startFuture) throws Exception {
-        HttpServer server = vertx.createHttpServer();
+        idempotencyCache = new IdempotencyCache(config().getInteger(CONFIG_IDEMPOTENCY_MAX_KEYS, 10000),
+                config().getLong(CONFIG_IDEMPOTENCY_TTL, 24L * 60 * 60 * 1000));
+        router.route().handler(this::startRequest);
+        router.route().handler(this::rateLimit);
         router.get("/").handler(this::findAll);
         router.get("/:id").handler(this::findById);
         router.get("/action/count").handler(this::count);
-        router.post("/").handler(BodyHandler.create()); //needed to catch body of request
+        router.get("/action/export").handler(this::export);
+        router.get("/action/aggregate").handler(this::aggregate);
+        router.route("/").method(HttpMethod.POST).method(HttpMethod.PUT).handler(this.createBodyHandler());
+        router.post().handler(this::idempotency);
         router.post("/").handler(this::create);
-        router.put("/").handler(BodyHandler.create()); //needed to catch body of request
+        router.post("/action/import").handler(this::importData);
         router.put("/").handler(this::update);
         router.delete("/:id").handler(this::deleteById);
         router.delete("/action/hide/:id").handler(this::hideById);
         UtilsRouter.getInstance(vertx).mountSubRouter(getEndpointAddress(), router);
-        Integer portNumber = config().getInteger(CONFIG_HTTP_SERVER_PORT);
-        if (portNumber == null) {
-            startFuture.fail(new Exception("No port speficied in configuration"));
-            System.out.println("Could not start a HTTP server" + this.getClass().getSimpleName() + ", no port speficied in configuration");
-        }
-        server.requestHandler(UtilsRouter.getInstance(vertx)::accept)
-                .listen(portNumber, ar -> {
-                    if (ar.succeeded()) {
-                        System.out.println(this.getClass().getSimpleName() + " running");
-                        startFuture.complete();
-                    } else {
-                        System.out.println("Could not start a HTTP server " + this.getClass().getSimpleName() + ", " + ar.cause());
-                        startFuture.fail(ar.cause());
-                    }
-                });
+        if (this.isBatchEnabled()) {
+            UtilsBatch.register(getEndpointAddress().substring(1), this::batchItem);
+        }
+        UtilsLog.info(this.getClass().getSimpleName() + " running");
+        startFuture.complete();
+    }
+
+    /**
+     * Creates the handler that reads the body of the requests that create and
+     * update, the requests with a body bigger than the property "maxBodyBytes"
+     * of the configuration are rejected with status code 413, the body is
+     * parsed later only once by {@link #getRequestBody(RoutingContext)}
+     *
+     * @return the handler of the body of the requests
+     */
+    protected BodyHandler createBodyHandler() {
+        return BodyHandler.create()
+                .setBodyLimit(config().getLong(CONFIG_MAX_BODY_BYTES, 1024L * 1024L))
+                .setMergeFormAttributes(false);
+    }
+
+    /**
+     * First handler of every request, sets the request id, starts the measure
+     * of the stages of the request and writes the access log when it ends
+     *
+     * @param context the routing context running in the request
+     */
+    protected void startRequest(RoutingContext context) {
+        UtilsTiming.start(context, this.getEndpointAddress());
+        context.addBodyEndHandler(v -> UtilsLog.access(new JsonObject()
+                .put("request_id", UtilsTiming.getRequestId(context))
+                .put("method", context.request().method().name())
+                .put("route", context.request().path())
+                .put("status", context.response().getStatusCode())
+                .put("user", context.<Integer>get(USER_ID))
+                .put("latency_ms", UtilsTiming.getElapsed(context) / 1_000_000.0)
+                .put("bytes", context.response().bytesWritten())));
+        context.next();
+    }
+
+    /**
+     * Takes a token of the budget of reads or writes of the user of the
+     * request, responds 429 if the budget is exhausted, the requests without a
+     * valid token continue to be rejected by its handler
+     *
+     * @param context the routing context running in the request
+     */
+    protected void rateLimit(RoutingContext context) {
+        if (this.isTokenValid(context, context.request().getHeader("Authorization"))) {
+            boolean write = context.request().method() != HttpMethod.GET;
+            long retryAfter = UtilsRateLimit.acquire(context.get(USER_ID), write);
+            if (retryAfter > 0) {
+                responseTooManyRequests(context, retryAfter);
+                return;
+            }
+        }
+        context.next();
+    }
+
+    /**
+     * Deduplicates the retries of the requests that create, the requests with
+     * the header "Idempotency-Key" are executed once per user and key, the
+     * retries while the first is running wait its response and the retries
+     * after it ends receive the same response from memory, encoded in the
+     * format each retry accepts. The keys are kept by the property
+     * "idempotencyTtlMS" of the configuration up to "idempotencyMaxKeys". The
+     * entry is settled when the response is decided, even if the client
+     * already left. A response with status error removes the key only when
+     * the write surely did not run; when the outcome is unknown, like a
+     * timeout of the database, the key stays in doubt and its retries are
+     * rejected with status code 409. A key used again with a different body
+     * is rejected
+     *
+     * @param context the routing context running in the request
+     */
+    protected void idempotency(RoutingContext context) {
+        String idempotencyKey = context.request().getHeader(IDEMPOTENCY_KEY_HEADER);
+        if (idempotencyKey == null || !this.isTokenValid(context, context.request().getHeader("Authorization"))) {
+            context.next();
+            return;
+        }
+        String key = context.<Integer>get(USER_ID) + ":" + context.request().path() + ":" + idempotencyKey;
+        IdempotencyCache.Entry entry = idempotencyCache.get(key);
+        byte[] fingerprint = IdempotencyCache.fingerprint(context.getBody());
+        if (entry != null && !entry.matches(fingerprint)) {
+            responseWarning(context, INVALID_DATA, "the idempotency key was already used with a different body");
+        } else if (entry == null) {
+            IdempotencyCache.Entry started = idempotencyCache.start(key, fingerprint);
+            context.put(RESPONSE_HANDLER, (Handler<RoutingContext>) ended -> this.settle(key, started, ended));
+            context.addBodyEndHandler(v -> {
+                if (started.getState() == IdempotencyCache.State.PENDING) {
+                    this.doubt(started); //ended without a response model, like a failure of the router
+                }
+            });
+            context.response().closeHandler(v -> vertx.setTimer(DeliveryOptions.DEFAULT_TIMEOUT, id -> {
+                if (started.getState() == IdempotencyCache.State.PENDING) {
+                    this.doubt(started); //the client left and the request did not end after the timeout of the database
+                }
+            }));
+            context.next();
+        } else if (entry.getState() == IdempotencyCache.State.COMPLETED) {
+            entry.replay(context);
+        } else if (entry.getState() == IdempotencyCache.State.IN_DOUBT) {
+            responseInDoubt(context);
+        } else {
+            entry.await(context);
+        }
+    }
+
+    /**
+     * Settles the entry of an idempotency key with the response of its first
+     * request
+     *
+     * @param key the idempotency key
+     * @param entry the entry of the key
+     * @param context the routing context of the first request
+     */
+    private void settle(String key, IdempotencyCache.Entry entry, RoutingContext context) {
+        if (entry.getState() != IdempotencyCache.State.PENDING) {
+            return;
+        }
+        int statusCode = context.response().getStatusCode();
+        if (statusCode < 500 && context.get(RESPONSE_STATUS) != ModelReponse.Status.ERROR) {
+            String contentType = context.response().headers().get(HttpHeaders.CONTENT_TYPE);
+            entry.complete(statusCode, contentType, context.get(RESPONSE_BODY)).forEach(entry::replay);
+        } else if (Boolean.TRUE.equals(context.get(OUTCOME_UNKNOWN))) {
+            this.doubt(entry);
+        } else {
+            idempotencyCache.remove(key, entry);
+            for (RoutingContext waiting : entry.abandon()) {
+                responseError(waiting, UNEXPECTED_ERROR, "the request with the same idempotency key did not complete, retry");
+            }
+        }
+    }
+
+    private void doubt(IdempotencyCache.Entry entry) {
+        for (RoutingContext waiting : entry.doubt()) {
+            responseInDoubt(waiting);
+        }
+    }
+
+    private static void responseInDoubt(RoutingContext context) {
+        context.response().setStatusCode(409);
+        responseError(context, "Outcome unknown", "the request with the same idempotency key ended without knowing if it was applied, verify it before retrying with a new key");
+    }
+
+    /**
+     * Verifies the json web token of the request measuring the time in the
+     * stage "auth", keeps the id of the user in the context so the token is
+     * parsed once per request
+     *
+     * @param context the routing context running in the request
+     * @param jwt the json web token in the authorization header
+     * @return true if the token is valid, false otherwise
+     */
+    protected boolean isTokenValid(RoutingContext context, String jwt) {
+        if (context.get(USER_ID) != null) {
+            return true;
+        }
+        long start = System.nanoTime();
+        Integer userId = UtilsJWT.getValidUserId(jwt);
+        UtilsTiming.record(context, "auth", System.nanoTime() - start);
+        if (userId != null) {
+            context.put(USER_ID, userId);
+        }
+        return userId != null;
+    }
+
+    /**
+     * Sends a message to the verticle registered with DBAddress especified in
+     * this instance, counting the message as in flight until the reply arrives
+     * and recording the time of the stages of the trip in the request. A
+     * timeout of the reply marks the outcome of the request as unknown
+     *
+     * @param context the routing context running in the request
+     * @param body the body of the message
+     * @param options the options with the action in the headers
+     * @param replyHandler the handler of the reply of the verticle
+     */
+    protected void sendToDB(RoutingContext context, Object body, DeliveryOptions options, Handler<AsyncResult<Message<Object>>> replyHandler) {
+        AtomicInteger inFlight = UtilsHealth.inFlight(this.getDBAddress());
+        inFlight.incrementAndGet();
+        String requestId = UtilsTiming.getRequestId(context);
+        if (requestId != null) {
+            options.addHeader(REQUEST_ID, requestId);
+        }
+        long sentAt = System.nanoTime();
+        options.addHeader(SENT_AT, String.valueOf(sentAt));
+        vertx.eventBus().send(this.getDBAddress(), body, options, reply -> {
+            inFlight.decrementAndGet();
+            if (reply.failed() && reply.cause() instanceof ReplyException
+                    && ((ReplyException) reply.cause()).failureType() == ReplyFailure.TIMEOUT) {
+                context.put(OUTCOME_UNKNOWN, true); //the database can still run the message after the timeout
+            }
+            UtilsTiming.recordReply(context, sentAt, reply.succeeded() ? reply.result().headers() : null);
+            replyHandler.handle(reply);
+        });
+    }
+
+    /**
+     * Options of a message of a read, asks the verticle registered with
+     * DBAddress to reply the documents already encoded as json when the client
+     * does not negotiate other format, so the bytes go to the response without
+     * being decoded and encoded again
+     *
+     * @param context the routing context running in the request
+     * @param action the action of the read
+     * @return the options with the action in the headers
+     */
+    protected DeliveryOptions readOptions(RoutingContext context, Action action) {
+        DeliveryOptions options = new DeliveryOptions().addHeader(ACTION, action.name());
+        if (!acceptsCbor(context)) {
+            options.addHeader(RAW_JSON, "true");
+        }
+        return options;
+    }
+
+    /**
+     * Options of a message of an update, with the param "return=new" asks the
+     * verticle registered with DBAddress to reply the updated document with
+     * the fields of the param "select"
+     *
+     * @param context the routing context running in the request
+     * @param action the action of the update
+     * @return the options with the action in the headers
+     */
+    protected DeliveryOptions writeOptions(RoutingContext context, Action action) {
+        DeliveryOptions options = new DeliveryOptions().addHeader(ACTION, action.name());
+        if ("new".equals(context.request().getParam("return"))) {
+            options.addHeader(RETURN_NEW, "true");
+            String select = context.request().getParam("select");
+            if (select != null) {
+                options.addHeader(SELECT, select);
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Sends a message to the verticle registered with DBAddress especified in
+     * this instance without waiting the result of the write, the failures are
+     * only counted in the metrics
+     *
+     * @param context the routing context running in the request
+     * @param action the action of the write
+     * @param body the body of the message
+     * @param options the options with the action in the headers
+     */
+    protected void sendAndForget(RoutingContext context, Action action, Object body, DeliveryOptions options) {
+        String metric = this.getDBAddress() + "." + action.name();
+        UtilsMetrics.increment(metric + ".queued");
+        this.sendToDB(context, body, options, reply -> {
+            if (reply.failed() || reply.result().headers().contains(ErrorCodes.DB_ERROR.name())) {
+                UtilsMetrics.increment(metric + ".failed");
+            }
+        });
+    }
+
+    /**
+     * Indicates if the action is replied as soon as the write is sent to the
+     * verticle registered with DBAddress, without waiting the result of the
+     * database, override to enable it in non critical writes
+     *
+     * @param action the action of the write
+     * @return true to reply without waiting the write, false by default
+     */
+    protected boolean isFireAndForget(Action action) {
+        return false;
+    }
+
+    /**
+     * Builds the body of the message of a read from the params of the request,
+     * is used by the endpoints of the reads and by the items of the batches so
+     * overriding it changes the reads of this entity in both
+     *
+     * @param context the routing context running in the request
+     * @param action the action of the read: FIND_BY_ID, FIND_ALL, COUNT or
+     * AGGREGATE
+     * @param params the params of the request or of the item of the batch
+     * @return the body of the message
+     */
+    protected JsonObject readBody(RoutingContext context, Action action, MultiMap params) {
+        JsonObject body = new JsonObject();
+        for (String param : READ_PARAMS.get(action)) {
+            body.put("id".equals(param) ? "_id" : param, params.get(param));
+        }
+        return body;
+    }
+
+    /**
+     * Indicates if the reads of this entity can be executed in the endpoint
+     * "/batch", override to exclude an entity whose reads do not go through
+     * {@link #readBody(RoutingContext, Action, MultiMap)}
+     *
+     * @return true by default
+     */
+    protected boolean isBatchEnabled() {
+        return true;
+    }
+
+    /**
+     * Executes a read of an item of the endpoint "/batch", with the same
+     * verification of the token, budget of the user and body of the message
+     * of the endpoints of the reads
+     *
+     * @param context the routing context of the batch
+     * @param action the action of the read: FIND_BY_ID, FIND_ALL, COUNT or
+     * AGGREGATE
+     * @param params the params of the item
+     * @param handler the handler of the result of the item
+     */
+    protected void batchItem(RoutingContext context, Action action, MultiMap params, Handler<ModelReponse> handler) {
+        if (!this.isTokenValid(context, context.request().getHeader("Authorization"))) {
+            handler.handle(new ModelReponse(ModelReponse.Status.INVALID_TOKEN, "Out of session", "the json web token in authorization header is invalid"));
+            return;
+        }
+        long retryAfter = UtilsRateLimit.acquire(context.get(USER_ID), false);
+        if (retryAfter > 0) {
+            handler.handle(new ModelReponse(ModelReponse.Status.WARNING, "Too many requests", "the rate limit of the user was exceeded, retry after " + retryAfter + " seconds"));
+            return;
+        }
+        //the batch is always json, the documents are spliced without decoding them
+        DeliveryOptions options = new DeliveryOptions()
+                .addHeader(ACTION, action.name())
+                .addHeader(RAW_JSON, "true");
+        this.sendToDB(context, this.readBody(context, action, params), options, reply -> {
+            if (reply.failed()) {
+                handler.handle(new ModelReponse(ModelReponse.Status.ERROR, UNEXPECTED_ERROR, reply.cause().getMessage()));
+                return;
+            }
+            MultiMap headers = reply.result().headers();
+            Object data = reply.result().body();
+            if (headers.contains(ErrorCodes.DB_ERROR.name())) {
+                handler.handle(new ModelReponse(ModelReponse.Status.WARNING, INVALID_DATA, headers.get(ErrorCodes.DB_ERROR.name())));
+            } else if (data == null) {
+                handler.handle(new ModelReponse(ModelReponse.Status.WARNING, "Element not found"));
+            } else {
+                ModelReponse result = new ModelReponse(ModelReponse.Status.OK, data);
+                if (headers.contains(TRUNCATED)) {
+                    result.setDevMessage(headers.contains(CONTINUATION)
+                            ? "truncated, continue with " + headers.get(CONTINUATION) : "truncated");
+                }
+                handler.handle(result);
+            }
+        });
     }
 
     /**
@@ -90,16 +473,119 @@ public abstract class ServiceVerticle extends AbstractVerticle {
      */
     protected void findAll(RoutingContext context) {
         String jwt = context.request().getHeader("Authorization");
-        if (UtilsJWT.isTokenValid(jwt)) {
+        if (this.isTokenValid(context, jwt)) {
+            JsonObject body = this.readBody(context, FIND_ALL, context.request().params());
+            DeliveryOptions options = this.readOptions(context, FIND_ALL);
+            this.sendToDB(context, body, options, reply -> {
+                if (reply.succeeded()) {
+                    MultiMap headers = reply.result().headers();
+                    if (headers.contains(ErrorCodes.DB_ERROR.name())) {
+                        responseWarning(context, INVALID_DATA, headers.get(ErrorCodes.DB_ERROR.name()));
+                        return;
+                    }
+                    if (headers.contains(TRUNCATED)) {
+                        context.response()
+                                .putHeader(TRUNCATED_HEADER, "true")
+                                .putHeader(CONTINUATION_HEADER, headers.get(CONTINUATION));
+                    }
+                    responseOk(context, reply.result().body(), "Found");
+                } else {
+                    responseError(context, UNEXPECTED_ERROR, reply.cause().getMessage());
+                }
+            });
+        } else {
+            responseInvalidToken(context);
+        }
+    }
+
+    /**
+     * Sends a message to the verticle registered with DBAddress especified in
+     * this instance the action of "export" and writes to the response every
+     * chunk of newline delimited json received, confirming each chunk only when
+     * the socket can accept more data. The chunks are compressed only when the
+     * property "httpCompression" of the configuration is true, which enables
+     * the compression in every route, the param "gzip=false" disables it for
+     * one export
+     *
+     * @param context the routing context running in the request
+     */
+    protected void export(RoutingContext context) {
+        String jwt = context.request().getHeader("Authorization");
+        if (this.isTokenValid(context, jwt)) {
+            HttpServerResponse response = context.response();
+            String address = this.getDBAddress() + ".export." + UUID.randomUUID().toString();
+            MessageConsumer<Buffer> consumer = vertx.eventBus().consumer(address);
+            response.closeHandler(v -> consumer.unregister());
+            consumer.handler(chunk -> {
+                String status = chunk.headers().get(STREAM_STATUS);
+                if (STREAM_ERROR.equals(status)) {
+                    consumer.unregister();
+                    if (!response.headWritten()) {
+                        responseError(context, UNEXPECTED_ERROR, chunk.body().toString());
+                    } else {
+                        response.close(); //the status was already sent, the client sees the stream cut
+                    }
+                    return;
+                }
+                if (!response.isChunked()) {
+                    response.setChunked(true);
+                    response.putHeader("Content-Type", "application/x-ndjson");
+                    if ("false".equals(context.request().getParam("gzip"))) {
+                        response.putHeader(HttpHeaders.CONTENT_ENCODING, HttpHeaders.IDENTITY);
+                    }
+                }
+                if (STREAM_END.equals(status)) {
+                    consumer.unregister();
+                    response.end(chunk.body());
+                    return;
+                }
+                response.write(chunk.body());
+                if (response.writeQueueFull()) {
+                    response.drainHandler(v -> chunk.reply(null));
+                } else {
+                    chunk.reply(null);
+                }
+            });
             JsonObject body = new JsonObject()
                     .put("select", context.request().getParam("select"))
                     .put("query", context.request().getParam("query"))
-                    .put("from", context.request().getParam("from"))
-                    .put("to", context.request().getParam("to"));
-            DeliveryOptions options = new DeliveryOptions().addHeader(ACTION, FIND_ALL.name());
-            vertx.eventBus().send(this.getDBAddress(), body, options, reply -> {
+                    .put("sort", context.request().getParam("sort"))
+                    .put("address", address);
+            DeliveryOptions options = new DeliveryOptions().addHeader(ACTION, EXPORT.name());
+            this.sendToDB(context, body, options, reply -> {
+                if (reply.failed()) {
+                    consumer.unregister();
+                    responseError(context, UNEXPECTED_ERROR, reply.cause().getMessage());
+                }
+            });
+        } else {
+            responseInvalidToken(context);
+        }
+    }
+
+    /**
+     * Sends a message to the verticle registered with DBAddress especified in
+     * this instance the action of "aggregate" with the specification in the
+     * params "query", "group", "sum", "avg", "min", "max" and "facet"
+     *
+     * @param context the routing context running in the request
+     */
+    protected void aggregate(RoutingContext context) {
+        String jwt = context.request().getHeader("Authorization");
+        if (this.isTokenValid(context, jwt)) {
+            JsonObject body = this.readBody(context, AGGREGATE, context.request().params());
+            DeliveryOptions options = new DeliveryOptions().addHeader(ACTION, AGGREGATE.name());
+            this.sendToDB(context, body, options, reply -> {
                 if (reply.succeeded()) {
-                    responseOk(context, reply.result().body(), "Found");
+                    MultiMap headers = reply.result().headers();
+                    if (headers.contains(ErrorCodes.DB_ERROR.name())) {
+                        responseWarning(context, INVALID_DATA, headers.get(ErrorCodes.DB_ERROR.name()));
+                    } else {
+                        if (headers.contains(TRUNCATED)) {
+                            context.response().putHeader(TRUNCATED_HEADER, "true");
+                        }
+                        responseOk(context, reply.result().body(), "Aggregated");
+                    }
                 } else {
                     responseError(context, UNEXPECTED_ERROR, reply.cause().getMessage());
                 }
@@ -117,10 +603,10 @@ public abstract class ServiceVerticle extends AbstractVerticle {
      */
     protected void findById(RoutingContext context) {
         String jwt = context.request().getHeader("Authorization");
-        if (UtilsJWT.isTokenValid(jwt)) {
-            JsonObject message = new JsonObject().put("_id", context.request().getParam("id"));
-            DeliveryOptions options = new DeliveryOptions().addHeader(ACTION, FIND_BY_ID.name());
-            vertx.eventBus().send(this.getDBAddress(), message, options, reply -> {
+        if (this.isTokenValid(context, jwt)) {
+            JsonObject message = this.readBody(context, FIND_BY_ID, context.request().params());
+            DeliveryOptions options = this.readOptions(context, FIND_BY_ID);
+            this.sendToDB(context, message, options, reply -> {
                 if (reply.succeeded()) {
                     responseOk(context, reply.result().body(), "Found");
                 } else {
@@ -140,28 +626,38 @@ public abstract class ServiceVerticle extends AbstractVerticle {
      */
     protected void update(RoutingContext context) {
         String jwt = context.request().getHeader("Authorization");
-        if (UtilsJWT.isTokenValid(jwt)) {
+        if (this.isTokenValid(context, jwt)) {
             if (this.isValidUpdateData(context)) {
-                DeliveryOptions options = new DeliveryOptions().addHeader(ACTION, UPDATE.name());
-                JsonObject reqBody = context.getBodyAsJson();
+                DeliveryOptions options = this.writeOptions(context, UPDATE);
+                JsonObject reqBody = this.getRequestBody(context);
                 //clean properties if exist any of this
                 reqBody.remove("created_at");
                 reqBody.remove("created_by");
                 //set the user requesting to update
                 reqBody.put("updated_at", new Date().getTime());
-                reqBody.put("updated_by", UtilsJWT.getUserIdFrom(jwt));
-                vertx.eventBus().send(this.getDBAddress(), reqBody, options, reply -> {
-                    if (reply.succeeded()) {
-                        MultiMap headers = reply.result().headers();
-                        if (headers.contains(ErrorCodes.DB_ERROR.toString())) {
-                            responseWarning(context, headers.get(ErrorCodes.DB_ERROR.name()));
+                reqBody.put("updated_by", context.<Integer>get(USER_ID));
+                if (this.isFireAndForget(UPDATE)) {
+                    this.sendAndForget(context, UPDATE, reqBody, options);
+                    responseOk(context, "Queued");
+                } else {
+                    this.sendToDB(context, reqBody, options, reply -> {
+                        if (reply.succeeded()) {
+                            MultiMap headers = reply.result().headers();
+                            if (headers.contains(ErrorCodes.DB_ERROR.toString())) {
+                                responseWarning(context, headers.get(ErrorCodes.DB_ERROR.name()));
+                            } else if (headers.contains(JOURNALED)) {
+                                context.response().putHeader(JOURNALED_HEADER, "true");
+                                responseOk(context, "Updated", "Journaled");
+                            } else if (reply.result().body() != null) {
+                                responseOk(context, reply.result().body(), "Updated");
+                            } else {
+                                responseOk(context, "Updated");
+                            }
                         } else {
-                            responseOk(context, "Updated");
+                            responseError(context, UNEXPECTED_ERROR, reply.cause().getMessage());
                         }
-                    } else {
-                        responseError(context, UNEXPECTED_ERROR, reply.cause().getMessage());
-                    }
-                });
+                    });
+                }
             }
         } else {
             responseInvalidToken(context);
@@ -176,32 +672,59 @@ public abstract class ServiceVerticle extends AbstractVerticle {
      */
     protected void create(RoutingContext context) {
         String jwt = context.request().getHeader("Authorization");
-        if (UtilsJWT.isTokenValid(jwt)) {
+        if (this.isTokenValid(context, jwt)) {
             if (this.isValidCreateData(context)) {
                 DeliveryOptions options = new DeliveryOptions().addHeader(ACTION, CREATE.name());
-                JsonObject reqBody = context.getBodyAsJson();
+                JsonObject reqBody = this.getRequestBody(context);
+                String id = this.generateId();
+                reqBody.put("_id", id);
                 reqBody.put("created_at", new Date().getTime());
-                reqBody.put("created_by", UtilsJWT.getUserIdFrom(jwt));
+                reqBody.put("created_by", context.<Integer>get(USER_ID));
                 reqBody.put("active", true);
                 reqBody.remove("updated_at");
                 reqBody.remove("updated_by");
-                vertx.eventBus().send(this.getDBAddress(), reqBody, options, reply -> {
-                    if (reply.succeeded()) {
-                        if (reply.result().headers().contains(ErrorCodes.DB_ERROR.toString())) {
-                            responseWarning(context, INVALID_DATA, INVALID_DATA_MESSAGE, reply.result().body());
+                if (this.isFireAndForget(CREATE)) {
+                    this.sendAndForget(context, CREATE, reqBody, options);
+                    responseOk(context, new JsonObject().put("id", id), "Queued");
+                } else {
+                    this.sendToDB(context, reqBody, options, reply -> {
+                        if (reply.succeeded()) {
+                            if (reply.result().headers().contains(ErrorCodes.DB_ERROR.toString())) {
+                                responseWarning(context, INVALID_DATA, INVALID_DATA_MESSAGE, reply.result().body());
+                            } else if (reply.result().headers().contains(JOURNALED)) {
+                                context.response().putHeader(JOURNALED_HEADER, "true");
+                                responseOk(context, "Created", "Journaled", reply.result().body());
+                            } else {
+                                responseOk(context, reply.result().body(), "Created");
+                            }
                         } else {
-                            responseOk(context, reply.result().body(), "Created");
+                            responseError(context, UNEXPECTED_ERROR, reply.cause().getMessage());
                         }
-                    } else {
-                        responseError(context, UNEXPECTED_ERROR, reply.cause().getMessage());
-                    }
-                });
+                    });
+                }
             }
         } else {
             responseInvalidToken(context);
         }
     }
 
+    /**
+     * Reads the body of the request as newline delimited json and sends to the
+     * verticle registered with DBAddress especified in this instance the action
+     * of "import" in chunks, the request is paused while a chunk is being
+     * written
+     *
+     * @param context the routing context running in the request
+     */
+    protected void importData(RoutingContext context) {
+        String jwt = context.request().getHeader("Authorization");
+        if (this.isTokenValid(context, jwt)) {
+            new ImportStream(context, context.<Integer>get(USER_ID)).start();
+        } else {
+            responseInvalidToken(context);
+        }
+    }
+
     /**
      * Sends a message to the verticle registered with DBAddress especified in
      * this instance the action of "deleteById"
@@ -210,23 +733,31 @@ public abstract class ServiceVerticle extends AbstractVerticle {
      */
     protected void deleteById(RoutingContext context) {
         String jwt = context.request().getHeader("Authorization");
-        if (UtilsJWT.isTokenValid(jwt)) {
+        if (this.isTokenValid(context, jwt)) {
             JsonObject reqBody = new JsonObject().put("_id", context.request().getParam("id"));
             DeliveryOptions options = new DeliveryOptions().addHeader(ACTION, DELETE_BY_ID.name());
-            vertx.eventBus().send(this.getDBAddress(), reqBody, options,
-                    reply -> {
-                        if (reply.succeeded()) {
-                            MultiMap headers = reply.result().headers();
-                            if (headers.contains(ErrorCodes.DB_ERROR.toString())) {
-                                responseWarning(context, headers.get(ErrorCodes.DB_ERROR.name()));
+            if (this.isFireAndForget(DELETE_BY_ID)) {
+                this.sendAndForget(context, DELETE_BY_ID, reqBody, options);
+                responseOk(context, "Queued");
+            } else {
+                this.sendToDB(context, reqBody, options,
+                        reply -> {
+                            if (reply.succeeded()) {
+                                MultiMap headers = reply.result().headers();
+                                if (headers.contains(ErrorCodes.DB_ERROR.toString())) {
+                                    responseWarning(context, headers.get(ErrorCodes.DB_ERROR.name()));
+                                } else if (headers.contains(JOURNALED)) {
+                                    context.response().putHeader(JOURNALED_HEADER, "true");
+                                    responseOk(context, "Deleted", "Journaled");
+                                } else {
+                                    responseOk(context, "Deleted");
+                                }
                             } else {
-                                responseOk(context, "Deleted");
+                                responseError(context, UNEXPECTED_ERROR, reply.cause().getMessage());
                             }
-                        } else {
-                            responseError(context, UNEXPECTED_ERROR, reply.cause().getMessage());
                         }
-                    }
-            );
+                );
+            }
         } else {
             responseWarning(context, "Out of session", "Sessión json web token is invalid");
         }
@@ -240,23 +771,30 @@ public abstract class ServiceVerticle extends AbstractVerticle {
      */
     protected void hideById(RoutingContext context) {
         String jwt = context.request().getHeader("Authorization");
-        if (UtilsJWT.isTokenValid(jwt)) {
+        if (this.isTokenValid(context, jwt)) {
             JsonObject reqBody = new JsonObject().put("_id", context.request().getParam("id"));
-            DeliveryOptions options = new DeliveryOptions().addHeader(ACTION, HIDE_BY_ID.name());
-            vertx.eventBus().send(this.getDBAddress(), reqBody, options,
-                    reply -> {
-                        if (reply.succeeded()) {
-                            MultiMap headers = reply.result().headers();
-                            if (headers.contains(ErrorCodes.DB_ERROR.toString())) {
-                                responseWarning(context, headers.get(ErrorCodes.DB_ERROR.name()));
+            DeliveryOptions options = this.writeOptions(context, HIDE_BY_ID);
+            if (this.isFireAndForget(HIDE_BY_ID)) {
+                this.sendAndForget(context, HIDE_BY_ID, reqBody, options);
+                responseOk(context, "Queued");
+            } else {
+                this.sendToDB(context, reqBody, options,
+                        reply -> {
+                            if (reply.succeeded()) {
+                                MultiMap headers = reply.result().headers();
+                                if (headers.contains(ErrorCodes.DB_ERROR.toString())) {
+                                    responseWarning(context, headers.get(ErrorCodes.DB_ERROR.name()));
+                                } else if (reply.result().body() != null) {
+                                    responseOk(context, reply.result().body(), "Hided");
+                                } else {
+                                    responseOk(context, "Hided");
+                                }
                             } else {
-                                responseOk(context, "Hided");
+                                responseError(context, UNEXPECTED_ERROR, reply.cause().getMessage());
                             }
-                        } else {
-                            responseError(context, UNEXPECTED_ERROR, reply.cause().getMessage());
                         }
-                    }
-            );
+                );
+            }
         } else {
             responseWarning(context, "Out of session", "Sessión json web token is invalid");
         }
@@ -270,9 +808,10 @@ public abstract class ServiceVerticle extends AbstractVerticle {
      */
     protected void count(RoutingContext context) {
         String jwt = context.request().getHeader("Authorization");
-        if (UtilsJWT.isTokenValid(jwt)) {
+        if (this.isTokenValid(context, jwt)) {
             DeliveryOptions options = new DeliveryOptions().addHeader(ACTION, COUNT.name());
-            vertx.eventBus().send(this.getDBAddress(), null, options,
+            JsonObject body = this.readBody(context, COUNT, context.request().params());
+            this.sendToDB(context, body, options,
                     reply -> {
                         if (reply.succeeded()) {
                             MultiMap headers = reply.result().headers();
@@ -291,6 +830,40 @@ public abstract class ServiceVerticle extends AbstractVerticle {
         }
     }
 
+    /**
+     * Gets the body of the request as a json object, decoded from CBOR when the
+     * header "Content-Type" is "application/cbor", the body is decoded once
+     * and kept in the context
+     *
+     * @param context context of the request
+     * @return the body of the request
+     * @throws DecodeException if the body is not a valid object
+     */
+    protected JsonObject getRequestBody(RoutingContext context) {
+        JsonObject body = context.get(REQUEST_BODY);
+        if (body == null) {
+            String contentType = context.request().getHeader(HttpHeaders.CONTENT_TYPE);
+            if (contentType != null && contentType.toLowerCase().startsWith(CBOR_CONTENT_TYPE)) {
+                body = UtilsJson.decodeCbor(context.getBody());
+            } else {
+                body = context.getBodyAsJson();
+            }
+            context.put(REQUEST_BODY, body);
+        }
+        return body;
+    }
+
+    /**
+     * Generates the id of a new record of this entity before it is sent to
+     * the verticle registered with DBAddress, so the id is known without
+     * waiting for the insert
+     *
+     * @return the id of the new record
+     */
+    protected String generateId() {
+        return UtilsObjectId.next();
+    }
+
     /**
      * Verifies is the data of the request is valid to create a record of this
      * entity
@@ -299,13 +872,28 @@ public abstract class ServiceVerticle extends AbstractVerticle {
      * @return true if the data is valid, false othrewise
      */
     protected boolean isValidCreateData(RoutingContext context) {
-        if (context.getBodyAsJson().getInteger("_id") != null) {
+        if (this.getRequestBody(context).containsKey("_id")) {
             responseWarning(context, INVALID_DATA, INVALID_DATA_MESSAGE, new PropertyError("id", UtilsValidation.INVALID_PARAMETER));
             return false;
         }
         return true;
     }
 
+    /**
+     * Verifies is the data of a line in an import is valid to create a record
+     * of this entity
+     *
+     * @param document the document in the line to import
+     * @return the error of the property that is not valid, null if the data is
+     * valid
+     */
+    protected PropertyError isValidImportData(JsonObject document) {
+        if (document.containsKey("_id")) {
+            return new PropertyError("id", UtilsValidation.INVALID_PARAMETER);
+        }
+        return null;
+    }
+
     /**
      * Verifies is the data of the request is valid to update a record of this
      * entity
@@ -314,11 +902,159 @@ public abstract class ServiceVerticle extends AbstractVerticle {
      * @return true if the data is valid, false othrewise
      */
     protected boolean isValidUpdateData(RoutingContext context) {
-        if (context.getBodyAsJson().getString("_id") == null) {
+        if (this.getRequestBody(context).getString("_id") == null) {
             responseWarning(context, INVALID_DATA, INVALID_DATA_MESSAGE, new PropertyError("id", UtilsValidation.MISSING_REQUIRED_VALUE));
             return false;
         }
         return true;
     }
 
+    /**
+     * Import in progress of a request with newline delimited json, groups the
+     * valid lines in chunks and keeps only one chunk in writing at a time
+     */
+    private class ImportStream {
+
+        private final RoutingContext context;
+        private final HttpServerRequest request;
+        private final int userId;
+        private final int chunkSize;
+        private final int maxErrors;
+        private final JsonArray errors = new JsonArray();
+        private JsonArray chunk = new JsonArray();
+        private List<Integer> chunkLines = new ArrayList<>();
+        private int lines;
+        private long inserted;
+        private long failed;
+        private boolean writing;
+        private boolean ended;
+        private boolean lastLineOpen;
+
+        public ImportStream(RoutingContext context, int userId) {
+            this.context = context;
+            this.request = context.request();
+            this.userId = userId;
+            this.chunkSize = config().getInteger(CONFIG_IMPORT_CHUNK_SIZE, 1000);
+            this.maxErrors = config().getInteger(CONFIG_IMPORT_MAX_ERRORS, 100);
+        }
+
+        public void start() {
+            RecordParser parser = RecordParser.newDelimited("\n", this::onLine);
+            request.handler(data -> {
+                if (data.length() > 0) {
+                    lastLineOpen = data.getByte(data.length() - 1) != '\n';
+                    parser.handle(data);
+                }
+            });
+            request.exceptionHandler(t -> {
+                if (inserted > 0 || writing) {
+                    context.put(OUTCOME_UNKNOWN, true); //the documents already sent would be inserted again by a retry
+                }
+                if (!context.response().ended()) {
+                    responseError(context, UNEXPECTED_ERROR, t.getMessage());
+                }
+            });
+            request.endHandler(v -> {
+                if (lastLineOpen) {
+                    parser.handle(Buffer.buffer("\n")); //the parser keeps the last line until its delimiter
+                }
+                ended = true;
+                if (!writing) {
+                    this.flush();
+                }
+            });
+        }
+
+        private void onLine(Buffer record) {
+            lines++;
+            String text = record.toString().trim();
+            if (text.isEmpty()) {
+                return;
+            }
+            JsonObject document;
+            try {
+                document = new JsonObject(text);
+            } catch (DecodeException e) {
+                this.addError(lines, new PropertyError("line", UtilsValidation.INVALID_FORMAT));
+                return;
+            }
+            PropertyError error = isValidImportData(document);
+            if (error != null) {
+                this.addError(lines, error);
+                return;
+            }
+            document.put("_id", generateId());
+            document.put("created_at", new Date().getTime());
+            document.put("created_by", userId);
+            document.put("active", true);
+            document.remove("updated_at");
+            document.remove("updated_by");
+            chunk.add(document);
+            chunkLines.add(lines);
+            if (chunk.size() >= chunkSize && !writing) {
+                this.flush();
+            }
+        }
+
+        private void flush() {
+            if (chunk.isEmpty()) {
+                if (ended) {
+                    this.finish();
+                } else {
+                    request.resume();
+                }
+                return;
+            }
+            writing = true;
+            request.pause();
+            JsonArray documents = chunk;
+            List<Integer> documentLines = chunkLines;
+            chunk = new JsonArray();
+            chunkLines = new ArrayList<>();
+            DeliveryOptions options = new DeliveryOptions().addHeader(ACTION, IMPORT.name());
+            JsonObject body = new JsonObject().put("documents", documents);
+            sendToDB(context, body, options, reply -> {
+                writing = false;
+                if (reply.succeeded()) {
+                    JsonObject result = (JsonObject) reply.result().body();
+                    inserted += result.getLong("inserted");
+                    for (Object o : result.getJsonArray("errors")) {
+                        JsonObject writeError = (JsonObject) o;
+                        this.addError(documentLines.get(writeError.getInteger("index")),
+                                new PropertyError("line", writeError.getString("error")));
+                    }
+                } else {
+                    for (Integer line : documentLines) {
+                        this.addError(line, new PropertyError("line", reply.cause().getMessage()));
+                    }
+                }
+                if (ended || chunk.size() >= chunkSize) {
+                    this.flush();
+                } else {
+                    request.resume();
+                }
+            });
+        }
+
+        private void addError(int line, PropertyError error) {
+            failed++;
+            if (errors.size() < maxErrors) {
+                errors.add(new JsonObject()
+                        .put("line", line)
+                        .put("name", error.getName())
+                        .put("error", error.getError()));
+            }
+        }
+
+        private void finish() {
+            JsonObject summary = new JsonObject()
+                    .put("lines", lines)
+                    .put("inserted", inserted)
+                    .put("failed", failed)
+                    .put("errors", errors);
+            responseOk(context, summary, "Imported");
+        }
+
+    }
+
 }
@@ -0,0 +1,188 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import database.commons.Action;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.BodyHandler;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import models.ModelReponse;
+import static models.ModelReponse.Status.*;
+import static service.commons.Constants.*;
+import static utils.UtilsResponse.responseWarning;
+
+/**
+ * Utils class for the endpoint "/batch" of the main router, executes in one request many reads of the entities
+ * registered by the service verticles. The body is an array of items {"entity": "example", "action": "FIND_BY_ID",
+ * "params": {"id": "..."}} with the actions FIND_BY_ID, FIND_ALL, COUNT and AGGREGATE and the same params of its
+ * endpoints. Every item is executed by the service verticle of its entity, which verifies the token of the request and
+ * builds the message to its DBVerticle like in its own endpoints, the items run in parallel and the results are streamed
+ * in order of arrival with the index of its item
+ *
+ * @author kriblet
+ */
+public class UtilsBatch {
+
+    private static final Map<String, ItemHandler> ITEM_HANDLERS = new ConcurrentHashMap<>();
+    private static final Set<Action> ACTIONS = EnumSet.of(Action.FIND_BY_ID, Action.FIND_ALL, Action.COUNT, Action.AGGREGATE);
+    private static int maxItems;
+
+    /**
+     * Registers the endpoint "/batch" in the main router
+     *
+     * @param vertx the vertx instance of the main router
+     * @param config the configuration with the max number of items of a batch
+     */
+    public static void init(Vertx vertx, JsonObject config) {
+        maxItems = config.getInteger(CONFIG_BATCH_MAX_ITEMS, 50);
+        Router router = UtilsRouter.getInstance(vertx);
+        router.post("/batch").handler(BodyHandler.create()
+                .setBodyLimit(config.getLong(CONFIG_MAX_BODY_BYTES, 1024L * 1024L))
+                .setMergeFormAttributes(false));
+        router.post("/batch").handler(UtilsBatch::batch);
+    }
+
+    /**
+     * Registers the handler of the items of an entity, the service verticle of the entity executes them
+     *
+     * @param entity the name of the entity in the items
+     * @param handler the handler that executes the items of the entity
+     */
+    public static void register(String entity, ItemHandler handler) {
+        ITEM_HANDLERS.put(entity, handler);
+    }
+
+    private static void batch(RoutingContext context) {
+        UtilsTiming.start(context, "/batch");
+        context.addBodyEndHandler(v -> UtilsLog.access(new JsonObject()
+                .put("request_id", UtilsTiming.getRequestId(context))
+                .put("method", context.request().method().name())
+                .put("route", context.request().path())
+                .put("status", context.response().getStatusCode())
+                .put("user", context.<Integer>get(USER_ID))
+                .put("latency_ms", UtilsTiming.getElapsed(context) / 1_000_000.0)
+                .put("bytes", context.response().bytesWritten())));
+        JsonArray items;
+        try {
+            items = context.getBodyAsJsonArray();
+        } catch (DecodeException | ClassCastException e) {
+            responseWarning(context, INVALID_DATA, "the body must be an array of items");
+            return;
+        }
+        if (items == null || items.isEmpty() || items.size() > maxItems) {
+            responseWarning(context, INVALID_DATA, "the batch must have from 1 to " + maxItems + " items");
+            return;
+        }
+
+        HttpServerResponse response = context.response();
+        response.setChunked(true);
+        response.putHeader(HttpHeaders.CONTENT_TYPE, "application/json");
+        response.write("{\"status\":\"OK\",\"message\":\"Batch\",\"data\":[");
+        AtomicInteger pending = new AtomicInteger(items.size());
+        boolean[] first = {true};
+        for (int i = 0; i < items.size(); i++) {
+            int index = i;
+            execute(context, items.getValue(i), result -> {
+                if (response.closed()) {
+                    return;
+                }
+                if (!first[0]) {
+                    response.write(",");
+                }
+                first[0] = false;
+                response.write(itemResult(index, result));
+                if (pending.decrementAndGet() == 0) {
+                    response.end("]}");
+                }
+            });
+        }
+    }
+
+    private static void execute(RoutingContext context, Object value, Handler<ModelReponse> handler) {
+        if (!(value instanceof JsonObject)) {
+            handler.handle(new ModelReponse(WARNING, INVALID_DATA, "the item must be an object"));
+            return;
+        }
+        JsonObject item = (JsonObject) value;
+        ItemHandler itemHandler = ITEM_HANDLERS.get(String.valueOf(item.getValue("entity")));
+        if (itemHandler == null) {
+            handler.handle(new ModelReponse(WARNING, INVALID_DATA, "the entity " + item.getValue("entity") + " does not exist"));
+            return;
+        }
+        Action action;
+        try {
+            action = Action.valueOf(String.valueOf(item.getValue("action")));
+        } catch (IllegalArgumentException e) {
+            action = null;
+        }
+        if (!ACTIONS.contains(action)) {
+            handler.handle(new ModelReponse(WARNING, INVALID_DATA, "the action must be one of " + ACTIONS));
+            return;
+        }
+        Object rawParams = item.getValue("params");
+        MultiMap params = MultiMap.caseInsensitiveMultiMap();
+        if (rawParams instanceof JsonObject) {
+            for (Map.Entry<String, Object> param : (JsonObject) rawParams) {
+                if (param.getValue() != null) {
+                    params.add(param.getKey(), param.getValue() instanceof String ? (String) param.getValue() : Json.encode(param.getValue()));
+                }
+            }
+        }
+        itemHandler.handle(context, action, params, handler);
+    }
+
+    /**
+     * Encodes the result of an item with its index, the raw json of the DBVerticle is spliced without decoding it
+     */
+    private static Buffer itemResult(int index, ModelReponse result) {
+        Buffer rawData = null;
+        if (result.getData() instanceof Buffer) {
+            rawData = (Buffer) result.getData();
+            result.setData(null);
+        }
+        Buffer encoded = UtilsJson.encode(result);
+        Buffer buffer = Buffer.buffer("{\"index\":" + index + ",")
+                .appendBuffer(encoded, 1, encoded.length() - 2); //without the braces
+        if (rawData != null) {
+            buffer.appendString(",\"data\":").appendBuffer(rawData);
+        }
+        return buffer.appendByte((byte) '}');
+    }
+
+    /**
+     * Executes the items of the batches of an entity
+     */
+    @FunctionalInterface
+    public interface ItemHandler {
+
+        /**
+         * Executes a read of an item
+         *
+         * @param context the routing context of the batch
+         * @param action the action of the item: FIND_BY_ID, FIND_ALL, COUNT or AGGREGATE
+         * @param params the params of the item, the values that are not strings are encoded as json
+         * @param handler the handler of the result of the item
+         */
+        void handle(RoutingContext context, Action action, MultiMap params, Handler<ModelReponse> handler);
+
+    }
+
+}
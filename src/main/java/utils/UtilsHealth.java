@@ -0,0 +1,134 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static service.commons.Constants.CONFIG_HEALTH_CHECK_INTERVAL;
+import static service.commons.Constants.CONFIG_HEALTH_MAX_EVENT_LOOP_LAG;
+import static service.commons.Constants.CONFIG_HEALTH_MAX_IN_FLIGHT;
+import static service.commons.Constants.CONFIG_HEALTH_MAX_MONGO_PING;
+import static utils.UtilsResponse.responseError;
+import static utils.UtilsResponse.responseOk;
+
+/**
+ * Utils class for the health of the application, keeps the measures used by the endpoints "/health/live" and
+ * "/health/ready" of the main router
+ *
+ * @author kriblet
+ */
+public class UtilsHealth {
+
+    private static final Map<String, AtomicInteger> IN_FLIGHT = new ConcurrentHashMap<>();
+    private static volatile boolean mongoReachable;
+    private static volatile long mongoPingMillis = -1;
+    private static volatile long eventLoopLagMillis;
+
+    private static long maxMongoPing;
+    private static long maxEventLoopLag;
+    private static int maxInFlight;
+
+    /**
+     * Starts the periodic measures of the ping to mongo and the lag of the event loop, and registers the health
+     * endpoints in the main router
+     *
+     * @param vertx the vertx instance to run the measures
+     * @param config the configuration with the connection to the database and the thresholds of readiness
+     */
+    public static void init(Vertx vertx, JsonObject config) {
+        long interval = config.getLong(CONFIG_HEALTH_CHECK_INTERVAL, 2000L);
+        maxMongoPing = config.getLong(CONFIG_HEALTH_MAX_MONGO_PING, 500L);
+        maxEventLoopLag = config.getLong(CONFIG_HEALTH_MAX_EVENT_LOOP_LAG, 200L);
+        maxInFlight = config.getInteger(CONFIG_HEALTH_MAX_IN_FLIGHT, 1000);
+
+        MongoClient dbClient = MongoClient.createShared(vertx, config);
+        JsonObject ping = new JsonObject().put("ping", 1);
+        vertx.setPeriodic(interval, id -> {
+            long start = System.nanoTime();
+            dbClient.runCommand("ping", ping, reply -> {
+                if (reply.succeeded()) {
+                    mongoPingMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    mongoReachable = true;
+                } else {
+                    mongoPingMillis = -1;
+                    mongoReachable = false;
+                }
+            });
+        });
+
+        long[] expected = {System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval)};
+        vertx.setPeriodic(interval, id -> {
+            long now = System.nanoTime();
+            eventLoopLagMillis = Math.max(0, TimeUnit.NANOSECONDS.toMillis(now - expected[0]));
+            expected[0] = now + TimeUnit.MILLISECONDS.toNanos(interval);
+        });
+
+        Router router = UtilsRouter.getInstance(vertx);
+        router.get("/health/live").handler(UtilsHealth::live);
+        router.get("/health/ready").handler(UtilsHealth::ready);
+    }
+
+    /**
+     * Gets the counter of messages sent to an address of the event bus that are waiting for a reply
+     *
+     * @param address the address of the verticle in the event bus
+     * @return the counter of messages in flight to the address
+     */
+    public static AtomicInteger inFlight(String address) {
+        return IN_FLIGHT.computeIfAbsent(address, a -> new AtomicInteger());
+    }
+
+    /**
+     * Responds ok while the event loop is able to attend requests
+     *
+     * @param context the routing context running in the request
+     */
+    private static void live(RoutingContext context) {
+        responseOk(context, "Alive");
+    }
+
+    /**
+     * Responds the measures of health, with status code 503 if any of them is out of the thresholds of the
+     * configuration or the application is not deployed yet
+     *
+     * @param context the routing context running in the request
+     */
+    private static void ready(RoutingContext context) {
+        boolean ready = UtilsRouter.isReady()
+                && mongoReachable
+                && mongoPingMillis <= maxMongoPing
+                && eventLoopLagMillis <= maxEventLoopLag;
+        JsonObject inFlight = new JsonObject();
+        for (Map.Entry<String, AtomicInteger> entry : IN_FLIGHT.entrySet()) {
+            int count = entry.getValue().get();
+            inFlight.put(entry.getKey(), count);
+            if (count > maxInFlight) {
+                ready = false;
+            }
+        }
+        JsonObject health = new JsonObject()
+                .put("ready", ready)
+                .put("mongo", new JsonObject()
+                        .put("reachable", mongoReachable)
+                        .put("pingMS", mongoPingMillis))
+                .put("eventLoopLagMS", eventLoopLagMillis)
+                .put("inFlight", inFlight);
+        if (ready) {
+            responseOk(context, health, "Ready");
+        } else {
+            context.response().setStatusCode(503);
+            responseError(context, health, "Not ready");
+        }
+    }
+
+}
@@ -32,6 +32,20 @@ public class UtilsJWT {
         return Integer.parseInt(Jwts.parser().setSigningKey(STRING_KEY).parseClaimsJws(token).getBody().getSubject());
     }
 
+    /**
+     * Verifies the token and gets the id of the user in the same parse
+     *
+     * @param token the json web token to verify
+     * @return the id of the user in the subject of the token, null if the token is invalid
+     */
+    public static Integer getValidUserId(String token) {
+        try {
+            return Integer.parseInt(Jwts.parser().setSigningKey(STRING_KEY).parseClaimsJws(token).getBody().getSubject());
+        } catch (ExpiredJwtException | MalformedJwtException | SignatureException | UnsupportedJwtException | IllegalArgumentException | NullPointerException e) {
+            return null;
+        }
+    }
+
     public static boolean isTokenValid(String token) {
         try {
             Jwts.parser().setSigningKey(STRING_KEY).parseClaimsJws(token);
@@ -0,0 +1,210 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.EncodeException;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import models.JsonWritable;
+
+/**
+ * Utils class to encode the responses streaming directly to a {@link Buffer}, the models that implement
+ * {@link JsonWritable} and the json types of vertx are written without reflection, any other object is encoded by the
+ * object mapper of vertx
+ *
+ * @author kriblet
+ */
+public class UtilsJson {
+
+    private static final JsonFactory FACTORY = Json.mapper.getFactory();
+
+    /**
+     * factory of generators and parsers of CBOR, the binary representation of json
+     */
+    public static final CBORFactory CBOR_FACTORY = new CBORFactory(Json.mapper);
+
+    /**
+     * Encodes an object as json
+     *
+     * @param value the object to encode
+     * @return the buffer with the json
+     */
+    public static Buffer encode(Object value) {
+        return encode(value, FACTORY);
+    }
+
+    /**
+     * Encodes an object in the format of the factory
+     *
+     * @param value the object to encode
+     * @param factory the factory of the generator of the format
+     * @return the buffer with the encoded object
+     */
+    public static Buffer encode(Object value, JsonFactory factory) {
+        Buffer buffer = Buffer.buffer();
+        try (JsonGenerator generator = factory.createGenerator(new BufferOutputStream(buffer))) {
+            write(generator, value);
+        } catch (IOException e) {
+            throw new EncodeException("Failed to encode as JSON: " + e.getMessage());
+        }
+        return buffer;
+    }
+
+    /**
+     * Measures the size of an object encoded as json without keeping the encoding
+     *
+     * @param value the object to measure
+     * @return the number of bytes of the json in UTF-8
+     */
+    public static long encodedLength(Object value) {
+        CountingOutputStream counter = new CountingOutputStream();
+        try (JsonGenerator generator = FACTORY.createGenerator(counter)) {
+            write(generator, value);
+        } catch (IOException e) {
+            throw new EncodeException("Failed to encode as JSON: " + e.getMessage());
+        }
+        return counter.count;
+    }
+
+    /**
+     * Decodes a json object encoded in CBOR
+     *
+     * @param buffer the buffer with the object
+     * @return the decoded object
+     * @throws DecodeException if the buffer is not a valid object
+     */
+    public static JsonObject decodeCbor(Buffer buffer) {
+        try (JsonParser parser = CBOR_FACTORY.createParser(buffer.getBytes())) {
+            @SuppressWarnings("unchecked") //the root of a CBOR object is decoded as a map of strings
+            Map<String, Object> map = parser.readValueAs(Map.class);
+            if (map == null) {
+                throw new DecodeException("Failed to decode CBOR: empty body");
+            }
+            return new JsonObject(map);
+        } catch (IOException | ClassCastException e) {
+            throw new DecodeException("Failed to decode CBOR: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes a value in the generator
+     *
+     * @param generator the generator to write in
+     * @param value the value to write
+     * @throws IOException if the generator can not write
+     */
+    public static void write(JsonGenerator generator, Object value) throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof JsonWritable) {
+            ((JsonWritable) value).writeJson(generator);
+        } else if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof JsonObject) {
+            writeMap(generator, ((JsonObject) value).getMap());
+        } else if (value instanceof JsonArray) {
+            writeIterable(generator, ((JsonArray) value).getList());
+        } else if (value instanceof Map) {
+            writeMap(generator, (Map<?, ?>) value);
+        } else if (value instanceof Iterable) {
+            writeIterable(generator, (Iterable<?>) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            generator.writeNumber(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            generator.writeNumber((Long) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            generator.writeNumber(((Number) value).doubleValue());
+        } else if (value instanceof BigDecimal) {
+            generator.writeNumber((BigDecimal) value);
+        } else if (value instanceof BigInteger) {
+            generator.writeNumber((BigInteger) value);
+        } else if (value instanceof Enum) {
+            generator.writeString(((Enum<?>) value).name());
+        } else if (value instanceof byte[]) {
+            generator.writeBinary((byte[]) value);
+        } else if (value instanceof Instant) {
+            generator.writeString(DateTimeFormatter.ISO_INSTANT.format((Instant) value));
+        } else {
+            Json.mapper.writeValue(generator, value);
+        }
+    }
+
+    private static void writeMap(JsonGenerator generator, Map<?, ?> map) throws IOException {
+        generator.writeStartObject();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            generator.writeFieldName(String.valueOf(entry.getKey()));
+            write(generator, entry.getValue());
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeIterable(JsonGenerator generator, Iterable<?> values) throws IOException {
+        generator.writeStartArray();
+        for (Object value : values) {
+            write(generator, value);
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * Output stream that appends the bytes to a buffer
+     */
+    private static class BufferOutputStream extends OutputStream {
+
+        private final Buffer buffer;
+
+        public BufferOutputStream(Buffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.appendByte((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.appendBytes(b, off, len);
+        }
+
+    }
+
+    /**
+     * Output stream that only counts the bytes written
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+    }
+
+}
@@ -0,0 +1,279 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import io.vertx.core.json.JsonObject;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import static service.commons.Constants.CONFIG_ACCESS_LOG_FILE;
+import static service.commons.Constants.CONFIG_LOG_BATCH_SIZE;
+import static service.commons.Constants.CONFIG_LOG_BUFFER_SIZE;
+import static service.commons.Constants.CONFIG_LOG_FILE;
+
+/**
+ * Utils class for asynchronous structured logging, the lines are written as json in lock free ring buffers and a
+ * background thread drains them in batches to the files, when a buffer is full the line is dropped and counted so the
+ * event loops never wait for the output. The thread parks while the buffers are empty and the producers wake it up,
+ * while there is nothing to drain but a line is still being published or a resized buffer is in its grace period it
+ * parks for a short time
+ *
+ * @author kriblet
+ */
+public class UtilsLog {
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+    private static final int DEFAULT_BATCH_SIZE = 256;
+    private static final long RETIRED_GRACE = TimeUnit.SECONDS.toNanos(1);
+    private static final long PENDING_PARK = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final LongAdder DROPPED = new LongAdder();
+    private static final List<Retired> RETIRED = new ArrayList<>();
+    private static final Thread DRAINER = new Thread(UtilsLog::drainLoop, "log-drainer");
+
+    private static volatile RingBuffer log = new RingBuffer(DEFAULT_BUFFER_SIZE);
+    private static volatile RingBuffer accessLog = new RingBuffer(DEFAULT_BUFFER_SIZE);
+    private static volatile Writer logWriter = stdout();
+    private static volatile Writer accessLogWriter = logWriter;
+    private static volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private static volatile boolean parked;
+
+    static {
+        DRAINER.setDaemon(true);
+        DRAINER.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(UtilsLog::drainAll, "log-flush"));
+    }
+
+    /**
+     * Sets the files and sizes of the logs from the configuration, the logs are written in the standard output while
+     * there is no file configured. When the size changes the old buffers are still drained, a producer could have
+     * taken them before the change
+     *
+     * @param config the configuration with the properties "logFile", "accessLogFile", "logBufferSize" and
+     * "logBatchSize"
+     * @throws IOException if a file can not be opened
+     */
+    public static synchronized void configure(JsonObject config) throws IOException {
+        int bufferSize = config.getInteger(CONFIG_LOG_BUFFER_SIZE, DEFAULT_BUFFER_SIZE);
+        batchSize = config.getInteger(CONFIG_LOG_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        String logFile = config.getString(CONFIG_LOG_FILE);
+        String accessLogFile = config.getString(CONFIG_ACCESS_LOG_FILE);
+        drainAll();
+        if (logFile != null) {
+            logWriter = file(logFile);
+        }
+        accessLogWriter = accessLogFile != null ? file(accessLogFile) : logWriter;
+        if (bufferSize != log.capacity()) {
+            RETIRED.add(new Retired(log, accessLog));
+            log = new RingBuffer(bufferSize);
+            accessLog = new RingBuffer(bufferSize);
+        }
+        drainAll();
+    }
+
+    /**
+     * Writes a line of information in the log
+     *
+     * @param message the message to log
+     */
+    public static void info(String message) {
+        write(log, "INFO", message, null);
+    }
+
+    /**
+     * Writes a line of error in the log
+     *
+     * @param message the message to log
+     * @param cause the cause of the error, can be null
+     */
+    public static void error(String message, Throwable cause) {
+        write(log, "ERROR", message, cause);
+    }
+
+    /**
+     * Writes a line in the access log
+     *
+     * @param entry the properties of the request to log
+     */
+    public static void access(JsonObject entry) {
+        offer(accessLog, entry.put("time", System.currentTimeMillis()).encode());
+    }
+
+    /**
+     * Gets the number of lines dropped because the buffers were full
+     *
+     * @return the number of lines lost
+     */
+    public static long getDropped() {
+        return DROPPED.sum();
+    }
+
+    private static void write(RingBuffer buffer, String level, String message, Throwable cause) {
+        JsonObject line = new JsonObject()
+                .put("time", System.currentTimeMillis())
+                .put("level", level)
+                .put("thread", Thread.currentThread().getName())
+                .put("message", message);
+        if (cause != null) {
+            StringWriter stackTrace = new StringWriter();
+            cause.printStackTrace(new PrintWriter(stackTrace));
+            line.put("error", String.valueOf(cause));
+            line.put("stackTrace", stackTrace.toString());
+        }
+        offer(buffer, line.encode());
+    }
+
+    private static void offer(RingBuffer buffer, String line) {
+        if (buffer.offer(line) && parked) {
+            LockSupport.unpark(DRAINER);
+        }
+    }
+
+    private static void drainLoop() {
+        while (true) {
+            if (drainAll() == 0) {
+                parked = true;
+                if (isEmpty()) { //checked after the flag so a line offered meanwhile unparks the thread
+                    LockSupport.park();
+                } else {
+                    LockSupport.parkNanos(PENDING_PARK);
+                }
+                parked = false;
+            }
+        }
+    }
+
+    private static synchronized boolean isEmpty() {
+        return log.isEmpty() && accessLog.isEmpty() && RETIRED.isEmpty();
+    }
+
+    private static synchronized int drainAll() {
+        int drained = 0;
+        try {
+            drained += drain(log, logWriter);
+            drained += drain(accessLog, accessLogWriter);
+            long now = System.nanoTime();
+            for (Iterator<Retired> it = RETIRED.iterator(); it.hasNext();) {
+                Retired retired = it.next();
+                drained += drain(retired.log, logWriter);
+                drained += drain(retired.accessLog, accessLogWriter);
+                if (retired.log.isEmpty() && retired.accessLog.isEmpty() && now - retired.since > RETIRED_GRACE) {
+                    it.remove();
+                }
+            }
+        } catch (IOException e) {
+            DROPPED.increment();
+        }
+        return drained;
+    }
+
+    private static int drain(RingBuffer buffer, Writer writer) throws IOException {
+        int drained = buffer.drain(writer, batchSize);
+        if (drained > 0) {
+            writer.flush();
+        }
+        return drained;
+    }
+
+    private static Writer stdout() {
+        return new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+    }
+
+    private static Writer file(String path) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path, true), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Buffers replaced by a change of size, drained until they are empty and no producer can still have them
+     */
+    private static class Retired {
+
+        private final RingBuffer log;
+        private final RingBuffer accessLog;
+        private final long since = System.nanoTime();
+
+        public Retired(RingBuffer log, RingBuffer accessLog) {
+            this.log = log;
+            this.accessLog = accessLog;
+        }
+
+    }
+
+    /**
+     * Bounded buffer of many producers and a single consumer, the producers claim a slot with a compare and set of
+     * the tail and the consumer frees the slots advancing the head
+     */
+    private static class RingBuffer {
+
+        private final AtomicReferenceArray<String> slots;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private volatile long head;
+
+        public RingBuffer(int size) {
+            int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+            this.slots = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+
+        public int capacity() {
+            return slots.length();
+        }
+
+        /**
+         * @return true if every line claimed was drained, a line claimed but not published yet is not empty
+         */
+        public boolean isEmpty() {
+            return tail.get() == head;
+        }
+
+        public boolean offer(String line) {
+            long claimed;
+            do {
+                claimed = tail.get();
+                if (claimed - head >= slots.length()) {
+                    DROPPED.increment();
+                    return false;
+                }
+            } while (!tail.compareAndSet(claimed, claimed + 1));
+            slots.lazySet((int) (claimed & mask), line);
+            return true;
+        }
+
+        public int drain(Writer writer, int max) throws IOException {
+            long position = head;
+            int drained = 0;
+            while (drained < max) {
+                int index = (int) (position & mask);
+                String line = slots.get(index);
+                if (line == null) { //empty or the producer has not published yet
+                    break;
+                }
+                slots.lazySet(index, null);
+                writer.write(line);
+                writer.write('\n');
+                position++;
+                drained++;
+            }
+            head = position;
+            return drained;
+        }
+
+    }
+
+}
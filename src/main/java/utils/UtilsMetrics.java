@@ -0,0 +1,184 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import static service.commons.Constants.CONFIG_METRICS_PUBLIC;
+import static utils.UtilsResponse.responseInvalidToken;
+import static utils.UtilsResponse.responseOk;
+
+/**
+ * Utils class for the metrics of the application, the values are exposed in the endpoint "/metrics" of the main router
+ * to the requests with a valid json web token, or to any request if the property "metricsPublic" is true
+ *
+ * @author kriblet
+ */
+public class UtilsMetrics {
+
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+    private static boolean publicMetrics;
+
+    /**
+     * Registers the endpoint of the metrics in the main router
+     *
+     * @param vertx the vertx instance of the main router
+     * @param config the configuration with the property "metricsPublic"
+     */
+    public static void init(Vertx vertx, JsonObject config) {
+        publicMetrics = config.getBoolean(CONFIG_METRICS_PUBLIC, false);
+        UtilsRouter.getInstance(vertx).get("/metrics").handler(UtilsMetrics::metrics);
+    }
+
+    /**
+     * Increments by one the counter with the name
+     *
+     * @param name name of the counter
+     */
+    public static void increment(String name) {
+        COUNTERS.computeIfAbsent(name, n -> new LongAdder()).increment();
+    }
+
+    /**
+     * Adds an amount to the counter with the name
+     *
+     * @param name name of the counter
+     * @param amount the amount to add
+     */
+    public static void add(String name, long amount) {
+        COUNTERS.computeIfAbsent(name, n -> new LongAdder()).add(amount);
+    }
+
+    /**
+     * Registers a value measured every time the metrics are responded, the supplier must be thread safe
+     *
+     * @param name name of the gauge
+     * @param supplier the supplier of the actual value
+     */
+    public static void gauge(String name, LongSupplier supplier) {
+        GAUGES.put(name, supplier);
+    }
+
+    /**
+     * Gets the actual value of the counter with the name
+     *
+     * @param name name of the counter
+     * @return the value of the counter, 0 if never was incremented
+     */
+    public static long getCounter(String name) {
+        LongAdder counter = COUNTERS.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Records a duration in the histogram with the name
+     *
+     * @param name name of the histogram
+     * @param nanos duration in nanoseconds
+     */
+    public static void record(String name, long nanos) {
+        HISTOGRAMS.computeIfAbsent(name, n -> new Histogram()).record(nanos);
+    }
+
+    /**
+     * Responds the actual values of the metrics
+     *
+     * @param context the routing context running in the request
+     */
+    private static void metrics(RoutingContext context) {
+        if (!publicMetrics && UtilsJWT.getValidUserId(context.request().getHeader("Authorization")) == null) {
+            responseInvalidToken(context);
+            return;
+        }
+        JsonObject counters = new JsonObject();
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(COUNTERS).entrySet()) {
+            counters.put(entry.getKey(), entry.getValue().sum());
+        }
+        counters.put("log.dropped", UtilsLog.getDropped());
+        JsonObject gauges = new JsonObject();
+        for (Map.Entry<String, LongSupplier> entry : new TreeMap<>(GAUGES).entrySet()) {
+            gauges.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        JsonObject histograms = new JsonObject();
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(HISTOGRAMS).entrySet()) {
+            histograms.put(entry.getKey(), entry.getValue().toJson());
+        }
+        responseOk(context, new JsonObject()
+                .put("counters", counters)
+                .put("gauges", gauges)
+                .put("histograms", histograms), "Metrics");
+    }
+
+    /**
+     * Lock free histogram of durations, the values are grouped in buckets of powers of two of microseconds
+     */
+    private static class Histogram {
+
+        private static final int BUCKETS = 40;
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public Histogram() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets[bucket].increment();
+            count.increment();
+            sum.add(nanos);
+            long actualMax = max.get();
+            while (nanos > actualMax && !max.compareAndSet(actualMax, nanos)) {
+                actualMax = max.get();
+            }
+        }
+
+        /**
+         * Upper bound in milliseconds of the bucket that contains the percentile
+         */
+        private double percentile(double percentile, long total) {
+            long target = (long) Math.ceil(total * percentile);
+            long accumulated = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                accumulated += buckets[i].sum();
+                if (accumulated >= target) {
+                    return (1L << i) / 1000.0;
+                }
+            }
+            return max.get() / 1_000_000.0;
+        }
+
+        public JsonObject toJson() {
+            long total = count.sum();
+            JsonObject json = new JsonObject().put("count", total);
+            if (total > 0) {
+                json.put("meanMS", sum.sum() / 1_000_000.0 / total)
+                        .put("p50MS", this.percentile(0.50, total))
+                        .put("p90MS", this.percentile(0.90, total))
+                        .put("p99MS", this.percentile(0.99, total))
+                        .put("maxMS", max.get() / 1_000_000.0);
+            }
+            return json;
+        }
+
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Utils class to generate the ids of the documents before inserting them, in the hexadecimal format of the ObjectId
+ * of mongo: 4 bytes of the seconds since epoch, 5 random bytes and 3 bytes of a counter. Every thread has its own
+ * random bytes and counter so the ids are generated without synchronization
+ *
+ * @author kriblet
+ */
+public class UtilsObjectId {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<Generator> GENERATOR = ThreadLocal.withInitial(Generator::new);
+
+    /**
+     * Generates a new id
+     *
+     * @return the 24 hexadecimal characters of the id
+     */
+    public static String next() {
+        return GENERATOR.get().next();
+    }
+
+    /**
+     * Random bytes and counter of a thread
+     */
+    private static class Generator {
+
+        private final char[] chars = new char[24];
+        private int counter;
+        private int issued;
+        private int lastSeconds;
+
+        public Generator() {
+            this.reset();
+        }
+
+        /**
+         * Takes new random bytes and a random start of the counter
+         */
+        private void reset() {
+            ThreadLocalRandom threadRandom = ThreadLocalRandom.current();
+            long random = threadRandom.nextLong() & 0xFFFFFFFFFFL;
+            counter = threadRandom.nextInt() & 0xFFFFFF;
+            for (int i = 0; i < 5; i++) {
+                put(8 + i * 2, (int) (random >>> (32 - i * 8)));
+            }
+        }
+
+        public String next() {
+            int seconds = (int) (System.currentTimeMillis() / 1000);
+            if (seconds != lastSeconds) {
+                lastSeconds = seconds;
+                issued = 0;
+                for (int i = 0; i < 4; i++) {
+                    put(i * 2, seconds >>> (24 - i * 8));
+                }
+            }
+            if (issued++ == 0xFFFFFF) {
+                this.reset(); //every value of the counter was used in this second
+                issued = 1;
+            }
+            counter = (counter + 1) & 0xFFFFFF;
+            for (int i = 0; i < 3; i++) {
+                put(18 + i * 2, counter >>> (16 - i * 8));
+            }
+            return new String(chars);
+        }
+
+        private void put(int position, int value) {
+            chars[position] = HEX[(value >>> 4) & 0xF];
+            chars[position + 1] = HEX[value & 0xF];
+        }
+
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import static service.commons.Constants.CONFIG_RATE_LIMIT_EVICT_INTERVAL;
+import static service.commons.Constants.CONFIG_RATE_LIMIT_READ_BURST;
+import static service.commons.Constants.CONFIG_RATE_LIMIT_READ_PER_SECOND;
+import static service.commons.Constants.CONFIG_RATE_LIMIT_WRITE_BURST;
+import static service.commons.Constants.CONFIG_RATE_LIMIT_WRITE_PER_SECOND;
+
+/**
+ * Utils class to limit the rate of requests of every user, with separated budgets for reads and writes. Every bucket
+ * is a single {@link AtomicLong} with the theoretical arrival time of the next request (generic cell rate algorithm),
+ * so a request takes a token with one compare and set and without locks
+ *
+ * @author kriblet
+ */
+public class UtilsRateLimit {
+
+    private static final Map<Integer, AtomicLong> READS = new ConcurrentHashMap<>();
+    private static final Map<Integer, AtomicLong> WRITES = new ConcurrentHashMap<>();
+
+    private static long readInterval;
+    private static long readTolerance;
+    private static long writeInterval;
+    private static long writeTolerance;
+
+    /**
+     * Sets the budgets of the users from the configuration and starts the periodic eviction of idle buckets, a budget
+     * without rate per second is not limited
+     *
+     * @param vertx the vertx instance to run the eviction
+     * @param config the configuration with the properties "rateLimitReadsPerSecond", "rateLimitReadBurst",
+     * "rateLimitWritesPerSecond", "rateLimitWriteBurst" and "rateLimitEvictIntervalMS"
+     */
+    public static void init(Vertx vertx, JsonObject config) {
+        double readsPerSecond = config.getDouble(CONFIG_RATE_LIMIT_READ_PER_SECOND, 0.0);
+        double writesPerSecond = config.getDouble(CONFIG_RATE_LIMIT_WRITE_PER_SECOND, 0.0);
+        readInterval = interval(readsPerSecond);
+        readTolerance = readInterval * config.getInteger(CONFIG_RATE_LIMIT_READ_BURST, (int) Math.max(1, readsPerSecond));
+        writeInterval = interval(writesPerSecond);
+        writeTolerance = writeInterval * config.getInteger(CONFIG_RATE_LIMIT_WRITE_BURST, (int) Math.max(1, writesPerSecond));
+        vertx.setPeriodic(config.getLong(CONFIG_RATE_LIMIT_EVICT_INTERVAL, 60000L), id -> {
+            evictIdle(READS);
+            evictIdle(WRITES);
+        });
+    }
+
+    /**
+     * Takes a token of the bucket of the user
+     *
+     * @param userId the id of the user in the json web token
+     * @param write true to take from the budget of writes, false from the budget of reads
+     * @return 0 if the request is allowed, otherwise the seconds to wait for the next token
+     */
+    public static long acquire(int userId, boolean write) {
+        long interval = write ? writeInterval : readInterval;
+        if (interval == 0) {
+            return 0;
+        }
+        long tolerance = write ? writeTolerance : readTolerance;
+        long now = System.nanoTime();
+        AtomicLong bucket = (write ? WRITES : READS).computeIfAbsent(userId, id -> new AtomicLong(now)); //full bucket
+        while (true) {
+            long arrival = bucket.get();
+            long next = (arrival - now > 0 ? arrival : now) + interval; //nanoTime is compared by difference, can be negative
+            long exceeded = next - now - tolerance;
+            if (exceeded > 0) {
+                UtilsMetrics.increment(write ? "ratelimit.write.rejected" : "ratelimit.read.rejected");
+                return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(exceeded + TimeUnit.SECONDS.toNanos(1) - 1));
+            }
+            if (bucket.compareAndSet(arrival, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Removes the buckets already full, a new bucket is the same as a full one so the budget of the users is kept
+     *
+     * @param buckets the buckets to clean
+     */
+    private static void evictIdle(Map<Integer, AtomicLong> buckets) {
+        long now = System.nanoTime();
+        buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+    }
+
+    private static long interval(double perSecond) {
+        return perSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / perSecond) : 0;
+    }
+
+}
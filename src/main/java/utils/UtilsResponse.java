@@ -5,14 +5,21 @@
  */
 package utils;
 
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.core.json.Json;
 import io.vertx.ext.web.RoutingContext;
 import models.ModelReponse;
 import static models.ModelReponse.Status.*;
 import models.PropertyError;
+import static service.commons.Constants.CBOR_CONTENT_TYPE;
 import static service.commons.Constants.INVALID_DATA;
 import static service.commons.Constants.INVALID_DATA_MESSAGE;
+import static service.commons.Constants.RESPONSE_BODY;
+import static service.commons.Constants.RESPONSE_HANDLER;
+import static service.commons.Constants.RESPONSE_STATUS;
 
 /**
  * Utils class for redundant presentation of the responses in http requests, use this to encapsulate data and messages
@@ -23,32 +30,26 @@ import static service.commons.Constants.INVALID_DATA_MESSAGE;
 public class UtilsResponse {
 
     public static void responseOk(RoutingContext context, String message, String devMessage, Object data) {
-        HttpServerResponse response = context.response();
-        response.putHeader("Content-Type", "application/json");
         if (data == null) {
-            response.end(Json.encode(new ModelReponse(WARNING, "Element not found")));
+            end(context, new ModelReponse(WARNING, "Element not found"));
         } else {
-            response.end(Json.encode(new ModelReponse(OK, message, devMessage, data)));
+            end(context, new ModelReponse(OK, message, devMessage, data));
         }
     }
 
     public static void responseOk(RoutingContext context, String message, Object data) {
-        HttpServerResponse response = context.response();
-        response.putHeader("Content-Type", "application/json");
         if (data == null) {
-            response.end(Json.encode(new ModelReponse(WARNING, "Element not found")));
+            end(context, new ModelReponse(WARNING, "Element not found"));
         } else {
-            response.end(Json.encode(new ModelReponse(OK, message, data)));
+            end(context, new ModelReponse(OK, message, data));
         }
     }
 
     public static void responseOk(RoutingContext context, Object data) {
-        HttpServerResponse response = context.response();
-        response.putHeader("Content-Type", "application/json");
         if (data == null) {
-            response.end(Json.encode(new ModelReponse(WARNING, "Element not found")));
+            end(context, new ModelReponse(WARNING, "Element not found"));
         } else {
-            response.end(Json.encode(new ModelReponse(OK, data)));
+            end(context, new ModelReponse(OK, data));
         }
     }
 
@@ -56,58 +57,46 @@ public class UtilsResponse {
         ModelReponse res = new ModelReponse(OK);
         res.setData(data);
         res.setDevMessage(devMessage);
-        HttpServerResponse response = context.response();
-        response.putHeader("Content-Type", "application/json");
         if (data == null) {
-            response.end(Json.encode(new ModelReponse(WARNING, "Element not found")));
+            end(context, new ModelReponse(WARNING, "Element not found"));
         } else {
-            response.end(Json.encode(res));
+            end(context, res);
         }
     }
 
     public static void responseOk(RoutingContext context, String message) {
-        HttpServerResponse response = context.response();
-        response.putHeader("Content-Type", "application/json");
-        response.end(Json.encode(new ModelReponse(OK, message)));
+        end(context, new ModelReponse(OK, message));
+    }
+
+    public static void responseOk(RoutingContext context, String message, String devMessage) {
+        end(context, new ModelReponse(OK, message, devMessage));
     }
 
     public static void responseWarning(RoutingContext context, String message) {
-        HttpServerResponse response = context.response();
-        response.putHeader("Content-Type", "application/json");
-        response.end(Json.encode(new ModelReponse(WARNING, message)));
+        end(context, new ModelReponse(WARNING, message));
     }
 
     public static void responseWarning(RoutingContext context, String message, String devMessage) {
-        HttpServerResponse response = context.response();
-        response.putHeader("Content-Type", "application/json");
-        response.end(Json.encode(new ModelReponse(WARNING, message, devMessage)));
+        end(context, new ModelReponse(WARNING, message, devMessage));
     }
 
     public static void responseWarning(RoutingContext context, String message, String devMessage, Object data) {
-        HttpServerResponse response = context.response();
-        response.putHeader("Content-Type", "application/json");
-        response.end(Json.encode(new ModelReponse(WARNING, message, devMessage, data)));
+        end(context, new ModelReponse(WARNING, message, devMessage, data));
     }
 
     public static void responseWarning(RoutingContext context, String message, Object data) {
-        HttpServerResponse response = context.response();
-        response.putHeader("Content-Type", "application/json");
-        response.end(Json.encode(new ModelReponse(WARNING, message, data)));
+        end(context, new ModelReponse(WARNING, message, data));
     }
 
     public static void responseWarning(RoutingContext context, Object data) {
-        HttpServerResponse response = context.response();
-        response.putHeader("Content-Type", "application/json");
-        response.end(Json.encode(new ModelReponse(WARNING, data)));
+        end(context, new ModelReponse(WARNING, data));
     }
 
     public static void responseWarning(RoutingContext context, Object data, String devMessage) {
         ModelReponse res = new ModelReponse(WARNING);
         res.setData(data);
         res.setDevMessage(devMessage);
-        HttpServerResponse response = context.response();
-        response.putHeader("Content-Type", "application/json");
-        response.end(Json.encode(res));
+        end(context, res);
     }
 
     public static boolean responsePropertyValue(RoutingContext context, UtilsValidation.PropertyValueException ex) {
@@ -119,48 +108,132 @@ public class UtilsResponse {
     }
 
     public static void responseInvalidToken(RoutingContext context) {
+        end(context, new ModelReponse(INVALID_TOKEN, "Out of session", "the json web token in authorization header is invalid"));
+    }
+
+    public static void responseTooManyRequests(RoutingContext context, long retryAfterSeconds) {
         HttpServerResponse response = context.response();
-        response.putHeader("Content-Type", "application/json");
-        response.end(Json.encode(new ModelReponse(INVALID_TOKEN, "Out of session", "the json web token in authorization header is invalid")));
+        response.setStatusCode(429);
+        response.putHeader("Retry-After", String.valueOf(retryAfterSeconds));
+        end(context, new ModelReponse(WARNING, "Too many requests", "the rate limit of the user was exceeded, retry after " + retryAfterSeconds + " seconds"));
     }
 
     public static void responseError(RoutingContext context, String message, String devMessage, Object data) {
-        HttpServerResponse response = context.response();
-        response.putHeader("Content-Type", "application/json");
-        response.end(Json.encode(new ModelReponse(ERROR, message, devMessage, data)));
+        end(context, new ModelReponse(ERROR, message, devMessage, data));
     }
 
     public static void responseError(RoutingContext context, String message, Object data) {
-        HttpServerResponse response = context.response();
-        response.putHeader("Content-Type", "application/json");
-        response.end(Json.encode(new ModelReponse(ERROR, message, data)));
+        end(context, new ModelReponse(ERROR, message, data));
     }
 
     public static void responseError(RoutingContext context, Object data) {
-        HttpServerResponse response = context.response();
-        response.putHeader("Content-Type", "application/json");
-        response.end(Json.encode(new ModelReponse(ERROR, data)));
+        end(context, new ModelReponse(ERROR, data));
     }
 
     public static void responseError(RoutingContext context, Object data, String devMessage) {
         ModelReponse res = new ModelReponse(ERROR);
         res.setData(data);
         res.setDevMessage(devMessage);
-        HttpServerResponse response = context.response();
-        response.putHeader("Content-Type", "application/json");
-        response.end(Json.encode(res));
+        end(context, res);
     }
 
     public static void responseError(RoutingContext context, String message) {
-        HttpServerResponse response = context.response();
-        response.putHeader("Content-Type", "application/json");
-        response.end(Json.encode(new ModelReponse(ERROR, message)));
+        end(context, new ModelReponse(ERROR, message));
     }
 
     public static void responseError(RoutingContext context, String message, String devMessage) {
-        HttpServerResponse response = context.response();
-        response.putHeader("Content-Type", "application/json");
-        response.end(Json.encode(new ModelReponse(ERROR, message, devMessage)));
+        end(context, new ModelReponse(ERROR, message, devMessage));
+    }
+
+    /**
+     * Indicates if the client of the request prefers responses in CBOR, every media type takes the quality of its
+     * most specific range in the header "Accept". CBOR is preferred when its quality is higher than the one of json,
+     * or equal with a more specific range or listed before
+     *
+     * @param context the routing context running in the request
+     * @return true if the header "Accept" prefers the media type "application/cbor" over "application/json"
+     */
+    public static boolean acceptsCbor(RoutingContext context) {
+        String accept = context.request().getHeader(HttpHeaders.ACCEPT);
+        if (accept == null) {
+            return false;
+        }
+        double[] cbor = {-1, 0, 0}; //specificity, quality and position of the range matched
+        double[] json = {-1, 0, 0};
+        String[] mediaRanges = accept.split(",");
+        for (int position = 0; position < mediaRanges.length; position++) {
+            String[] parameters = mediaRanges[position].split(";");
+            String range = parameters[0].trim().toLowerCase();
+            double quality = quality(parameters);
+            match(cbor, range, CBOR_CONTENT_TYPE, quality, position);
+            match(json, range, "application/json", quality, position);
+        }
+        if (cbor[1] != json[1]) {
+            return cbor[1] > json[1];
+        }
+        return cbor[1] > 0 && (cbor[0] > json[0] || cbor[0] == json[0] && cbor[2] < json[2]);
+    }
+
+    private static void match(double[] best, String range, String mediaType, double quality, int position) {
+        int specificity = range.equals(mediaType) ? 2 : range.equals("application/*") ? 1 : range.equals("*/*") ? 0 : -1;
+        if (specificity > best[0]) {
+            best[0] = specificity;
+            best[1] = quality;
+            best[2] = position;
+        }
+    }
+
+    private static double quality(String[] parameters) {
+        for (int i = 1; i < parameters.length; i++) {
+            String parameter = parameters[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Ends the response with the model encoded in CBOR if the client accepts it or in json otherwise, when the data
+     * of the model is a {@link Buffer} it must contain json already encoded and is written as is. The handler kept in
+     * the context with the key "response_handler" receives the context with the body before it is written
+     *
+     * @param context the routing context running in the request
+     * @param model the model of the response
+     */
+    private static void end(RoutingContext context, ModelReponse model) {
+        HttpServerResponse response = context.response();
+        response.putHeader("Vary", HttpHeaders.ACCEPT);
+        boolean cbor = acceptsCbor(context);
+        Buffer body;
+        if (model.getData() instanceof Buffer && !cbor) {
+            Buffer rawData = (Buffer) model.getData();
+            model.setData(null);
+            Buffer envelope = UtilsJson.encode(model);
+            body = envelope.getBuffer(0, envelope.length() - 1) //without the closing brace
+                    .appendString(",\"data\":")
+                    .appendBuffer(rawData)
+                    .appendByte((byte) '}');
+        } else {
+            if (model.getData() instanceof Buffer) {
+                model.setData(Json.decodeValue((Buffer) model.getData(), Object.class));
+            }
+            body = cbor ? UtilsJson.encode(model, UtilsJson.CBOR_FACTORY) : UtilsJson.encode(model);
+        }
+        response.putHeader(HttpHeaders.CONTENT_TYPE, cbor ? CBOR_CONTENT_TYPE : "application/json");
+        context.put(RESPONSE_BODY, body);
+        context.put(RESPONSE_STATUS, model.getStatus());
+        Handler<RoutingContext> responseHandler = context.get(RESPONSE_HANDLER);
+        if (responseHandler != null) {
+            responseHandler.handle(context);
+        }
+        if (!response.closed()) { //the client can leave while the request is running
+            response.end(body);
+        }
     }
 
 }
@@ -20,6 +20,7 @@ import java.util.Set;
 public class UtilsRouter {
 
     private static Router router;
+    private static volatile boolean ready;
     private static final Set<String> ALLOWED_HEADERS = new HashSet<>();
     private static final Set<HttpMethod> ALLOWED_METHODS = new HashSet<>();
 
@@ -31,6 +32,7 @@ public class UtilsRouter {
         ALLOWED_HEADERS.add("accept");
         ALLOWED_HEADERS.add("X-PINGARUNER");
         ALLOWED_HEADERS.add("authorization");
+        ALLOWED_HEADERS.add("Idempotency-Key");
 
         ALLOWED_METHODS.add(HttpMethod.GET);
         ALLOWED_METHODS.add(HttpMethod.POST);
@@ -52,4 +54,22 @@ public class UtilsRouter {
         return router;
     }
 
+    /**
+     * Indicates if all the verticles are deployed and the http server is listening
+     *
+     * @return true if the application can receive requests, false otherwise
+     */
+    public static boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Sets the readiness of the application to receive requests
+     *
+     * @param ready true when all the verticles are deployed and the http server is listening
+     */
+    public static void setReady(boolean ready) {
+        UtilsRouter.ready = ready;
+    }
+
 }
@@ -0,0 +1,132 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package utils;
+
+import io.vertx.core.MultiMap;
+import io.vertx.ext.web.RoutingContext;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import static service.commons.Constants.DB_RECEIVED_AT;
+import static service.commons.Constants.DB_REPLIED_AT;
+import static service.commons.Constants.REQUEST_ID;
+import static service.commons.Constants.REQUEST_ID_HEADER;
+
+/**
+ * Utils class to measure the time of the stages of a request, all the times are taken with {@link System#nanoTime()}
+ * and returned in the header "Server-Timing" of the response
+ *
+ * @author kriblet
+ */
+public class UtilsTiming {
+
+    private static final String REQUEST_START = "request_start";
+    private static final String REQUEST_STAGES = "request_stages";
+    private static final String REPLY_ARRIVAL = "reply_arrival";
+
+    /**
+     * Starts the measure of the request, sets the request id from the header "X-Request-Id" or a new one, and when
+     * the headers of the response are written adds the header "Server-Timing" and records the stages in the metrics
+     *
+     * @param context the routing context running in the request
+     * @param metricsPrefix prefix of the name of the histograms of the stages
+     */
+    public static void start(RoutingContext context, String metricsPrefix) {
+        long start = System.nanoTime();
+        String requestId = context.request().getHeader(REQUEST_ID_HEADER);
+        if (requestId == null || requestId.isEmpty()) {
+            requestId = UUID.randomUUID().toString();
+        }
+        Map<String, Long> stages = new LinkedHashMap<>();
+        context.put(REQUEST_ID, requestId);
+        context.put(REQUEST_START, start);
+        context.put(REQUEST_STAGES, stages);
+        context.response().putHeader(REQUEST_ID_HEADER, requestId);
+        context.addHeadersEndHandler(v -> {
+            long end = System.nanoTime();
+            Long replyArrival = context.get(REPLY_ARRIVAL);
+            if (replyArrival != null) {
+                stages.put("encode", end - replyArrival);
+            }
+            stages.put("total", end - start);
+            StringBuilder serverTiming = new StringBuilder();
+            for (Map.Entry<String, Long> stage : stages.entrySet()) {
+                if (serverTiming.length() > 0) {
+                    serverTiming.append(", ");
+                }
+                serverTiming.append(stage.getKey()).append(";dur=")
+                        .append(String.format(Locale.US, "%.3f", stage.getValue() / 1_000_000.0));
+                UtilsMetrics.record(metricsPrefix + "." + stage.getKey(), stage.getValue());
+            }
+            context.response().putHeader("Server-Timing", serverTiming.toString());
+        });
+    }
+
+    /**
+     * Gets the id of the request
+     *
+     * @param context the routing context running in the request
+     * @return the id of the request, null if the measure was not started
+     */
+    public static String getRequestId(RoutingContext context) {
+        return context.get(REQUEST_ID);
+    }
+
+    /**
+     * Gets the time elapsed since the start of the request
+     *
+     * @param context the routing context running in the request
+     * @return the elapsed time in nanoseconds, 0 if the measure was not started
+     */
+    public static long getElapsed(RoutingContext context) {
+        Long start = context.get(REQUEST_START);
+        return start == null ? 0 : System.nanoTime() - start;
+    }
+
+    /**
+     * Adds a duration to a stage of the request
+     *
+     * @param context the routing context running in the request
+     * @param stage name of the stage
+     * @param nanos duration in nanoseconds
+     */
+    public static void record(RoutingContext context, String stage, long nanos) {
+        Map<String, Long> stages = context.get(REQUEST_STAGES);
+        if (stages != null) {
+            stages.merge(stage, nanos, Long::sum);
+        }
+    }
+
+    /**
+     * Adds the stages of the trip of a message to a DBVerticle: "queue" from the send until the verticle receives the
+     * message, "db" until the verticle replies and "reply" until the reply arrives
+     *
+     * @param context the routing context running in the request
+     * @param sentAt moment in which the message was sent
+     * @param replyHeaders headers of the reply of the DBVerticle
+     */
+    public static void recordReply(RoutingContext context, long sentAt, MultiMap replyHeaders) {
+        Map<String, Long> stages = context.get(REQUEST_STAGES);
+        if (stages == null) {
+            return;
+        }
+        long arrival = System.nanoTime();
+        String receivedAt = replyHeaders == null ? null : replyHeaders.get(DB_RECEIVED_AT);
+        String repliedAt = replyHeaders == null ? null : replyHeaders.get(DB_REPLIED_AT);
+        if (receivedAt != null && repliedAt != null) {
+            long received = Long.parseLong(receivedAt);
+            long replied = Long.parseLong(repliedAt);
+            record(context, "queue", received - sentAt);
+            record(context, "db", replied - received);
+            record(context, "reply", arrival - replied);
+        } else {
+            record(context, "db", arrival - sentAt);
+        }
+        context.put(REPLY_ARRIVAL, arrival);
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package database.commons;
+
+import io.vertx.core.json.JsonObject;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests of the recovery, the segments and the checkpoint of the journal of writes
+ *
+ * @author Ulises Beltrán Gómez - beltrangomezulises@gmail.com
+ */
+public class WriteAheadJournalTest {
+
+    private static final int HEADER = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reopenIgnoresTornLastRecord() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        WriteAheadJournal journal = new WriteAheadJournal(directory, 4096, 4);
+        journal.append(record(0));
+        journal.append(record(1));
+        journal.append(record(2));
+        //the last byte of the payload of the third record never reached the disk
+        int end = 0;
+        for (int i = 0; i < 3; i++) {
+            end += HEADER + record(i).encode().length();
+        }
+        write(directory.resolve(String.format("%020d.wal", 0)), end - 1, (byte) 0);
+
+        WriteAheadJournal reopened = new WriteAheadJournal(directory, 4096, 4);
+        assertEquals(2, reopened.getPendingRecords());
+        assertTrue(reopened.append(record(3)));
+        List<JsonObject> records = reopened.peek(10);
+        assertEquals(3, records.size());
+        assertEquals(record(0), records.get(0));
+        assertEquals(record(1), records.get(1));
+        assertEquals(record(3), records.get(2));
+    }
+
+    @Test
+    public void rollsSegmentsAndDeletesReplayed() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        int size = HEADER + record(0).encode().length();
+        WriteAheadJournal journal = new WriteAheadJournal(directory, size * 3, 8);
+        for (int i = 0; i < 7; i++) {
+            assertTrue(journal.append(record(i)));
+        }
+        assertEquals(3, segments(directory));
+
+        List<JsonObject> records = journal.peek(10);
+        assertEquals(7, records.size());
+        for (int i = 0; i < 7; i++) {
+            assertEquals(record(i), records.get(i));
+        }
+        journal.commit(4);
+        assertEquals(2, segments(directory));
+        journal.commit(0);
+        journal.peek(10);
+        journal.commit(3);
+        assertEquals(1, segments(directory));
+        assertFalse(journal.hasPending());
+        assertEquals(0, journal.getPendingBytes());
+    }
+
+    @Test
+    public void commitAfterPartialBatchKeepsTheRest() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        WriteAheadJournal journal = new WriteAheadJournal(directory, 4096, 4);
+        for (int i = 0; i < 5; i++) {
+            journal.append(record(i));
+        }
+        assertEquals(5, journal.peek(5).size());
+        journal.commit(2);
+        assertEquals(3, journal.getPendingRecords());
+        assertEquals(3 * (HEADER + record(0).encode().length()), journal.getPendingBytes());
+        List<JsonObject> records = journal.peek(10);
+        assertEquals(3, records.size());
+        assertEquals(record(2), records.get(0));
+
+        //the checkpoint survives a restart
+        WriteAheadJournal reopened = new WriteAheadJournal(directory, 4096, 4);
+        records = reopened.peek(10);
+        assertEquals(3, records.size());
+        assertEquals(record(2), records.get(0));
+        assertEquals(record(4), records.get(2));
+    }
+
+    @Test
+    public void rejectsWritesWhenFull() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        int size = HEADER + record(0).encode().length();
+        WriteAheadJournal journal = new WriteAheadJournal(directory, size * 2, 2);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(journal.append(record(i)));
+        }
+        assertFalse(journal.append(record(4)));
+        assertEquals(4, journal.getPendingRecords());
+        assertFalse(journal.append(new JsonObject().put("insert", new JsonObject().put("text", new String(new char[size * 2])))));
+
+        journal.peek(2);
+        journal.commit(2);
+        assertTrue(journal.append(record(4)));
+        List<JsonObject> records = journal.peek(10);
+        assertEquals(3, records.size());
+        assertEquals(record(4), records.get(2));
+    }
+
+    private static JsonObject record(int index) {
+        return new JsonObject().put("insert", new JsonObject().put("_id", index));
+    }
+
+    private static long segments(Path directory) throws IOException {
+        long count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.wal")) {
+            for (Path file : files) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void write(Path file, int position, byte value) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{value}), position);
+        }
+    }
+
+}